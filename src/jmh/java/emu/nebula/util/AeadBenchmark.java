@@ -0,0 +1,98 @@
+package emu.nebula.util;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import emu.nebula.net.SessionCrypto;
+
+/**
+ * Compares the per packet cost of creating a new cipher for every packet (the previous AeadHelper implementation)
+ * with a session crypto context. Run with the gc profiler to compare allocations per request (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AeadBenchmark {
+    @Param({"0", "1"})
+    private int method;
+    
+    @Param({"64", "1024", "16384"})
+    private int size;
+    
+    private byte[] key;
+    private byte[] data;
+    private byte[] encrypted;
+    private SessionCrypto crypto;
+    
+    @Setup
+    public void setup() throws Exception {
+        this.key = AeadHelper.generateBytes(32);
+        this.data = AeadHelper.generateBytes(this.size);
+        this.crypto = new SessionCrypto(this.key, this.method);
+        this.encrypted = this.crypto.encrypt(this.data);
+    }
+    
+    @Benchmark
+    public byte[] encryptLegacy() throws Exception {
+        byte[] iv = AeadHelper.generateBytes(12);
+        
+        Cipher cipher = createLegacyCipher(Cipher.ENCRYPT_MODE, iv);
+        
+        byte[] encrypted = cipher.doFinal(this.data);
+        byte[] data = new byte[encrypted.length + iv.length];
+        
+        System.arraycopy(iv, 0, data, 0, iv.length);
+        System.arraycopy(encrypted, 0, data, iv.length, encrypted.length);
+        
+        return data;
+    }
+    
+    @Benchmark
+    public byte[] encryptSession() throws Exception {
+        return this.crypto.encrypt(this.data);
+    }
+    
+    @Benchmark
+    public byte[] decryptLegacy() throws Exception {
+        byte[] message = this.encrypted.clone();
+        byte[] iv = new byte[12];
+        byte[] data = new byte[message.length - iv.length];
+        System.arraycopy(message, 0, iv, 0, iv.length);
+        System.arraycopy(message, iv.length, data, 0, data.length);
+        
+        Cipher cipher = createLegacyCipher(Cipher.DECRYPT_MODE, iv);
+        
+        return cipher.doFinal(data);
+    }
+    
+    @Benchmark
+    public void decryptSession(Blackhole bh) throws Exception {
+        // Request bodies are a new array for every request, so copy the message like the server would receive it
+        bh.consume(this.crypto.decrypt(this.encrypted.clone()));
+    }
+    
+    private Cipher createLegacyCipher(int mode, byte[] iv) throws Exception {
+        Cipher cipher;
+        
+        if (this.method == 1) {
+            cipher = Cipher.getInstance("ChaCha20-Poly1305/None/NoPadding");
+            cipher.init(mode, new SecretKeySpec(this.key, "ChaCha20"), new IvParameterSpec(iv));
+        } else {
+            cipher = Cipher.getInstance("AES/GCM/NoPadding");
+            cipher.init(mode, new SecretKeySpec(this.key, "AES"), new GCMParameterSpec(128, iv));
+        }
+        
+        cipher.updateAAD(iv);
+        return cipher;
+    }
+}
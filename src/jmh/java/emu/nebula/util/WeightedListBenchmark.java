@@ -0,0 +1,87 @@
+package emu.nebula.util;
+
+import java.util.NavigableMap;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.random.RandomGenerator;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Compares drawing from the alias method weighted list with the previous TreeMap implementation. Run with the
+ * gc profiler to compare allocations per draw (gc.alloc.rate.norm).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class WeightedListBenchmark {
+    @Param({"3", "30", "300"})
+    private int size;
+    
+    private RandomGenerator random;
+    private WeightedList<Integer> list;
+    private LegacyWeightedList<Integer> legacyList;
+    private int[] results;
+    
+    @Setup
+    public void setup() {
+        var weights = new SplittableRandom(1);
+        
+        this.random = new SplittableRandom(2);
+        this.list = new WeightedList<>();
+        this.legacyList = new LegacyWeightedList<>();
+        this.results = new int[10];
+        
+        for (int i = 0; i < this.size; i++) {
+            double weight = weights.nextInt(1, 10000);
+            
+            this.list.add(weight, i);
+            this.legacyList.add(weight, i);
+        }
+        
+        // Build alias tables before measuring
+        this.list.next(this.random);
+    }
+    
+    @Benchmark
+    public Integer nextLegacy() {
+        return this.legacyList.next(this.random);
+    }
+    
+    @Benchmark
+    public Integer next() {
+        return this.list.next(this.random);
+    }
+    
+    @Benchmark
+    public int nextIndex() {
+        return this.list.nextIndex(this.random);
+    }
+    
+    @Benchmark
+    public int[] nextIndexesTen() {
+        return this.list.nextIndexes(this.random, this.results);
+    }
+    
+    /**
+     * Previous implementation of WeightedList
+     */
+    private static class LegacyWeightedList<E> {
+        private final NavigableMap<Double, E> map = new TreeMap<>();
+        private double total = 0;
+        
+        public void add(double weight, E result) {
+            total += weight;
+            map.put(total, result);
+        }
+        
+        public E next(RandomGenerator random) {
+            double value = random.nextDouble() * total;
+            return map.higherEntry(value).getValue();
+        }
+    }
+}
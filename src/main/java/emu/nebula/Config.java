@@ -12,6 +12,9 @@ public class Config {
     public DatabaseInfo gameDatabase = new DatabaseInfo();
     public InternalMongoInfo internalMongoServer = new InternalMongoInfo();
     public boolean useSameDatabase = true;
+    public WriteQueueOptions writeQueue = new WriteQueueOptions();
+    public int idBlockSize = 100; // Amount of ids that are reserved from the database at once
+    public int nodeId = 0; // Unique id (0-1023) of this server, needed when multiple servers share a database
 
     public KeystoreInfo keystore = new KeystoreInfo();
 
@@ -27,6 +30,7 @@ public class Config {
     public String region = "global";
     
     public String resourceDir = "./resources";
+    public String resourceSnapshot = "./resources.snapshot"; // Binary copy of the parsed resource files, leave empty to always load from json
     public String webFilesDir = "./web";
     public String patchListPath = "./patchlist.json";
 
@@ -44,6 +48,13 @@ public class Config {
         public String filePath = "database.mv";
     }
 
+    @Getter
+    public static class WriteQueueOptions {
+        public boolean enabled = true;
+        public int flushInterval = 1000; // Max time (in milliseconds) that a game database write can stay queued before it is flushed
+        public int maxPendingWrites = 2000; // Flush early if this many documents are waiting to be written
+    }
+
     @Getter
     public static class KeystoreInfo {
         public String path = "./keystore.p12";
@@ -108,7 +119,9 @@ public class Config {
         public int sessionTimeout = 600; // How long to wait (in seconds) after the last http request from a session
                                          // before removing it from the server
         public int dailyResetHour = 0;
-        public int leaderboardRefreshTime = 60; // Leaderboard refresh time in seconds
+        public int playerProfileCacheSize = 10000; // Max amount of offline player profiles kept in memory for friend lists
+        public int warmPlayerCacheSize = 500; // Max amount of disconnected players kept in memory, so that reconnecting is faster
+        public int warmPlayerTimeout = 600; // How long to keep a disconnected player in memory (in seconds)
         public WelcomeMail welcomeMail = new WelcomeMail();
     }
 
@@ -14,12 +14,13 @@ import emu.nebula.command.CommandManager;
 import emu.nebula.data.ResourceLoader;
 import emu.nebula.database.DatabaseManager;
 import emu.nebula.game.GameContext;
-import emu.nebula.net.PacketHelper;
+import emu.nebula.game.gacha.GachaSimulator;
 import emu.nebula.plugin.PluginManager;
 import emu.nebula.server.HttpServer;
 import emu.nebula.util.AeadHelper;
 import emu.nebula.util.Handbook;
 import emu.nebula.util.JsonUtils;
+import emu.nebula.util.Utils;
 import lombok.Getter;
 
 public class Nebula {
@@ -63,6 +64,12 @@ public class Nebula {
             Nebula.getLogger().error("Unable to load plugins.", exception);
         }
         
+        // Gacha simulator only
+        if (args.length > 0 && args[0].equals("-gachasim")) {
+            Nebula.runGachaSimulator(args);
+            return;
+        }
+        
         // Parse arguments
         for (String arg : args) {
             switch (arg) {
@@ -92,8 +99,6 @@ public class Nebula {
             if (generateHandbook) {
                 Handbook.generate();
             }
-            // Cache proto methods
-            PacketHelper.cacheProtos();
         }
 
         try {
@@ -103,6 +108,9 @@ public class Nebula {
             Nebula.getLogger().error("Unable to start the database(s).", exception);
         }
         
+        // Write any queued database changes when the server is stopped
+        Runtime.getRuntime().addShutdownHook(new Thread(Nebula::onShutdown, "Shutdown"));
+        
         // Start game context
         Nebula.gameContext = new GameContext();
         Nebula.commandManager = new CommandManager();
@@ -123,6 +131,47 @@ public class Nebula {
         Nebula.startConsole();
     }
 
+    /**
+     * Usage: -gachasim {banner id} [pulls] [seed]
+     */
+    private static void runGachaSimulator(String[] args) {
+        if (args.length < 2) {
+            Nebula.getLogger().info("Usage: -gachasim {banner id} [pulls] [seed]");
+            return;
+        }
+        
+        // Load resources
+        ResourceLoader.loadAll();
+        
+        // Get banner
+        int bannerId = Utils.parseSafeInt(args[1]);
+        var simulator = GachaSimulator.create(bannerId);
+        
+        if (simulator == null) {
+            Nebula.getLogger().info("Banner " + bannerId + " does not exist");
+            return;
+        }
+        
+        long pulls = args.length >= 3 ? Utils.parseSafeLong(args[2]) : 10_000_000L;
+        long seed = args.length >= 4 ? Utils.parseSafeLong(args[3]) : System.nanoTime();
+        
+        if (pulls <= 0 || pulls > GachaSimulator.MAX_PULLS) {
+            Nebula.getLogger().info("Amount of pulls must be between 1 and " + GachaSimulator.MAX_PULLS);
+            return;
+        }
+        
+        // Simulate
+        var result = simulator.run(pulls, seed);
+        Nebula.getLogger().info(result.getSummary());
+        
+        try {
+            var file = GachaSimulator.writeResult(result);
+            Nebula.getLogger().info("Saved gacha simulation to " + file.getPath());
+        } catch (Exception e) {
+            Nebula.getLogger().error("Unable to write gacha simulation result: ", e);
+        }
+    }
+
     public static Logger getLogger() {
         return log;
     }
@@ -147,6 +196,12 @@ public class Nebula {
         }
     }
     
+    private static void onShutdown() {
+        if (gameDatabase != null) {
+            gameDatabase.shutdown();
+        }
+    }
+    
     // Config
 
     public static void loadConfig() {
@@ -3,6 +3,9 @@ package emu.nebula.command;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import org.reflections.Reflections;
@@ -15,6 +18,11 @@ import lombok.Getter;
 
 @Getter
 public class CommandManager {
+    private static final int COMMAND_TIMEOUT = 10; // Seconds to wait for a command to run on the target's executor
+    private static final int COMMAND_QUEUED = 0;
+    private static final int COMMAND_RUNNING = 1;
+    private static final int COMMAND_CANCELLED = 2;
+    
     private Object2ObjectMap<String, CommandHandler> labels;
     private Object2ObjectMap<String, CommandHandler> commands;
     
@@ -159,7 +167,7 @@ public class CommandManager {
             }
             
             // Run command
-            String commandMessage = handler.execute(cmdArgs);
+            String commandMessage = this.execute(handler, cmdArgs);
             
             // Parse out last newline
             if (commandMessage.endsWith("\n")) {
@@ -175,4 +183,49 @@ public class CommandManager {
         
         return result.build();
     }
+    
+    /**
+     * Runs the command on the target player's executor so that it doesnt race with the player's own requests.
+     */
+    private String execute(CommandHandler handler, CommandArgs args) {
+        var target = args.getTarget();
+        
+        if (target == null) {
+            return handler.execute(args);
+        }
+        
+        // Set when the command starts running, so that commands still waiting in the queue can be cancelled
+        var state = new AtomicInteger(COMMAND_QUEUED);
+        
+        var future = target.getExecutor().submit(() -> {
+            if (!state.compareAndSet(COMMAND_QUEUED, COMMAND_RUNNING)) {
+                return null;
+            }
+            
+            return handler.execute(args);
+        });
+        
+        try {
+            return future.get(COMMAND_TIMEOUT, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            // Cancel the command if it hasnt started yet
+            if (state.compareAndSet(COMMAND_QUEUED, COMMAND_CANCELLED)) {
+                return "Error - Command timed out and was cancelled";
+            }
+            
+            // Command is already running, log its result once it is done
+            future.whenComplete((message, error) -> {
+                if (error != null) {
+                    Nebula.getLogger().error("Error running command: ", error);
+                } else {
+                    Nebula.getLogger().info("Command finished on " + target.getName() + ": " + message);
+                }
+            });
+            
+            return "Command is still running, its result will be logged when it finishes";
+        } catch (Exception e) {
+            Nebula.getLogger().error("Error running command: ", e);
+            return "Error - " + e.getMessage();
+        }
+    }
 }
@@ -0,0 +1,62 @@
+package emu.nebula.command.commands;
+
+import emu.nebula.Nebula;
+import emu.nebula.command.Command;
+import emu.nebula.command.CommandArgs;
+import emu.nebula.command.CommandHandler;
+import emu.nebula.game.gacha.GachaSimulator;
+import emu.nebula.util.Utils;
+
+@Command(
+    label = "gachasim", 
+    permission = "admin.gachasim", 
+    desc = "/gachasim {banner id} [pulls] [seed]. Simulates pulls on a banner and writes the rates to a json file."
+)
+public class GachaSimCommand implements CommandHandler {
+    private static final long DEFAULT_PULLS = 10_000_000L;
+    
+    @Override
+    public String execute(CommandArgs args) {
+        if (args.size() < 1) {
+            return "Invalid amount of args";
+        }
+        
+        // Get banner
+        int bannerId = Utils.parseSafeInt(args.get(0));
+        var simulator = GachaSimulator.create(bannerId);
+        
+        if (simulator == null) {
+            return "Banner " + bannerId + " does not exist";
+        }
+        
+        // Get pull count and seed
+        long pulls = args.size() >= 2 ? Utils.parseSafeLong(args.get(1)) : DEFAULT_PULLS;
+        long seed = args.size() >= 3 ? Utils.parseSafeLong(args.get(2)) : System.nanoTime();
+        
+        if (pulls <= 0) {
+            return "Invalid amount of pulls";
+        }
+        
+        if (pulls > GachaSimulator.MAX_PULLS) {
+            return "Can not simulate more than " + GachaSimulator.MAX_PULLS + " pulls";
+        }
+        
+        // Simulate in the background, a large amount of pulls can take a while
+        simulator.runAsync(pulls, seed).whenComplete((result, error) -> {
+            if (error != null) {
+                Nebula.getLogger().error("Error running gacha simulation: ", error);
+                return;
+            }
+            
+            try {
+                var file = GachaSimulator.writeResult(result);
+                Nebula.getLogger().info(result.getSummary() + ". Saved to " + file.getPath());
+            } catch (Exception e) {
+                Nebula.getLogger().error("Unable to write gacha simulation result: ", e);
+                Nebula.getLogger().info(result.getSummary());
+            }
+        });
+        
+        return "Simulating " + pulls + " pulls on banner " + bannerId + " in the background, the result will be written to the server log";
+    }
+}
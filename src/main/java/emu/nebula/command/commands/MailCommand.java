@@ -6,24 +6,28 @@ import java.util.regex.Pattern;
 import emu.nebula.command.Command;
 import emu.nebula.command.CommandArgs;
 import emu.nebula.command.CommandHandler;
+import emu.nebula.Nebula;
+import emu.nebula.game.inventory.ItemParamMap;
 import emu.nebula.game.mail.GameMail;
+import emu.nebula.game.mail.GlobalMail;
 import emu.nebula.util.Utils;
 
 @Command(
     label = "mail",
     aliases = {"m"},
     permission = "player.mail",
-    requireTarget = true,
-    desc = "/mail \"subject\" \"body\" [itemId xQty | itemId:qty ...]. Sends the targeted player a system mail."
+    desc = "/mail \"subject\" \"body\" [itemId xQty | itemId:qty ...] [-all [lv(min level)] [-new]]. Sends the targeted player a system mail, or all players with -all."
 )
 public class MailCommand implements CommandHandler {
-    private static final String USAGE_TEXT = "Usage: /mail \"subject\" \"body\" [itemId xQty | itemId:qty ...]";
+    private static final String USAGE_TEXT = "Usage: /mail \"subject\" \"body\" [itemId xQty | itemId:qty ...] [-all [lv(min level)] [-new]]";
     private static final Pattern QUOTED_TEXT = Pattern.compile("\"([^\"]*)\"");
 
     @Override
     public String execute(CommandArgs args) {
         var target = args.getTarget();
-        if (target == null) {
+        boolean global = args.hasFlag("-all");
+        
+        if (target == null && !global) {
             return "Error - Targeted player not found or offline";
         }
 
@@ -54,19 +58,42 @@ public class MailCommand implements CommandHandler {
         }
 
         String author = args.getSender() != null ? args.getSender().getName() : "System";
-        var mail = new GameMail(author, subject, body);
 
         String attachmentSection = rawInput.length() > attachmentStartIndex
                 ? rawInput.substring(attachmentStartIndex).trim()
                 : "";
 
-        parseAttachments(attachmentSection, mail, args);
+        var attachments = new ItemParamMap();
+        parseAttachments(attachmentSection, attachments, args);
+        
+        // Send to all players
+        if (global) {
+            var mail = new GlobalMail(author, subject, body);
+            for (var entry : attachments) {
+                mail.addAttachment(entry.getIntKey(), entry.getIntValue());
+            }
+            
+            // Audience filters
+            mail.setMinLevel(Math.max(args.getLevel(), 0));
+            
+            if (args.hasFlag("-new")) {
+                mail.setMaxCreateTime(0);
+            }
+            
+            Nebula.getGameContext().getGlobalMailModule().send(mail);
+            return "Mail sent to all players with subject \"" + subject + "\".";
+        }
+        
+        var mail = new GameMail(author, subject, body);
+        for (var entry : attachments) {
+            mail.addAttachment(entry.getIntKey(), entry.getIntValue());
+        }
         
         target.getMailbox().sendMail(mail);
         return "Mail sent to " + target.getName() + " with subject \"" + subject + "\".";
     }
 
-    private void parseAttachments(String attachmentSection, GameMail mail, CommandArgs args) {
+    private void parseAttachments(String attachmentSection, ItemParamMap attachments, CommandArgs args) {
         if (attachmentSection == null || attachmentSection.isBlank()) {
             return;
         }
@@ -81,7 +108,7 @@ public class MailCommand implements CommandHandler {
                 String[] split = token.split("[:,]", 2);
                 int itemId = Utils.parseSafeInt(split[0]);
                 int qty = split.length > 1 ? Utils.parseSafeInt(split[1]) : 1;
-                addAttachment(mail, args, itemId, qty);
+                addAttachment(attachments, args, itemId, qty);
                 pendingItemId = null;
                 continue;
             }
@@ -93,14 +120,14 @@ public class MailCommand implements CommandHandler {
                 }
 
                 int qty = Utils.parseSafeInt(token.substring(1));
-                addAttachment(mail, args, pendingItemId, qty);
+                addAttachment(attachments, args, pendingItemId, qty);
                 pendingItemId = null;
                 continue;
             }
 
             if (isIntegerToken(token)) {
                 if (pendingItemId != null) {
-                    addAttachment(mail, args, pendingItemId, 1);
+                    addAttachment(attachments, args, pendingItemId, 1);
                 }
 
                 int itemId = Utils.parseSafeInt(token);
@@ -118,18 +145,18 @@ public class MailCommand implements CommandHandler {
         }
 
         if (pendingItemId != null) {
-            addAttachment(mail, args, pendingItemId, 1);
+            addAttachment(attachments, args, pendingItemId, 1);
         }
     }
 
-    private void addAttachment(GameMail mail, CommandArgs args, int itemId, int quantity) {
+    private void addAttachment(ItemParamMap attachments, CommandArgs args, int itemId, int quantity) {
         if (itemId <= 0) {
             //args.sendMessage("Item id must be positive.");
             return;
         }
 
         int qty = Math.max(quantity, 1);
-        mail.addAttachment(itemId, qty);
+        attachments.add(itemId, qty);
     }
 
     private boolean isIntegerToken(String token) {
@@ -0,0 +1,83 @@
+package emu.nebula.command.commands;
+
+import java.util.concurrent.TimeUnit;
+
+import emu.nebula.Nebula;
+import emu.nebula.command.Command;
+import emu.nebula.command.CommandArgs;
+import emu.nebula.command.CommandHandler;
+import emu.nebula.game.player.PlayerPurge;
+import emu.nebula.util.Utils;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+
+@Command(
+    label = "purge", 
+    permission = "admin.purge", 
+    desc = "/purge {uid ...} | inactive {days} | status. Deletes offline players in the background."
+)
+public class PurgeCommand implements CommandHandler {
+    private static volatile PlayerPurge lastPurge;
+
+    @Override
+    public String execute(CommandArgs args) {
+        if (args.size() < 1) {
+            return "Invalid amount of args";
+        }
+        
+        var playerModule = Nebula.getGameContext().getPlayerModule();
+        String command = args.get(0).toLowerCase();
+        
+        // Show status of the last purge
+        if (command.equals("status")) {
+            var purge = lastPurge;
+            
+            if (purge == null) {
+                return "No purge has been started";
+            }
+            
+            return String.format("Purge %s: %.1f%% done, %d/%d players deleted, %d documents deleted", 
+                    purge.isDone() ? "complete" : "running",
+                    purge.getProgress() * 100,
+                    purge.getDeletedPlayers().get(),
+                    purge.getUids().size(),
+                    purge.getDeletedDocuments().get());
+        }
+        
+        // Get players to delete
+        var uids = new IntArrayList();
+        
+        if (command.equals("inactive")) {
+            int days = Utils.parseSafeInt(args.get(1));
+            if (days <= 0) {
+                return "Invalid amount of days";
+            }
+            
+            long cutoff = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(days);
+            uids.addAll(playerModule.getInactivePlayers(cutoff));
+        } else {
+            for (String arg : args.getList()) {
+                int uid = Utils.parseSafeInt(arg);
+                
+                if (uid > 0) {
+                    uids.add(uid);
+                }
+            }
+        }
+        
+        if (uids.isEmpty()) {
+            return "No players to delete";
+        }
+        
+        // Start purge
+        var purge = playerModule.purgePlayers(uids);
+        lastPurge = purge;
+        
+        purge.getFuture().thenAccept(result -> {
+            long time = result.getEndTime() - result.getStartTime();
+            Nebula.getLogger().info("Purged " + result.getDeletedPlayers().get() + " players (" + result.getDeletedDocuments().get() + " documents) in " + time + "ms");
+        });
+        
+        return "Deleting " + purge.getUids().size() + " players in the background, use \"/purge status\" to check progress";
+    }
+
+}
@@ -4,8 +4,9 @@ import emu.nebula.Nebula;
 import emu.nebula.command.Command;
 import emu.nebula.command.CommandArgs;
 import emu.nebula.command.CommandHandler;
+import emu.nebula.data.ResourceLoader;
 
-@Command(label = "reload", permission = "admin.reload", desc = "/reload. Reloads the server config.")
+@Command(label = "reload", permission = "admin.reload", desc = "/reload [data]. Reloads the server config. Also reloads the game data if \"data\" is added.")
 public class ReloadCommand implements CommandHandler {
 
     @Override
@@ -18,6 +19,19 @@ public class ReloadCommand implements CommandHandler {
             Nebula.getHttpServer().loadPatchList();
         }
         
+        // Reload game data in the background, players keep using the old data until the new data is fully loaded
+        if (args.getList().stream().anyMatch(arg -> arg.equalsIgnoreCase("data"))) {
+            ResourceLoader.reloadAsync().whenComplete((generation, error) -> {
+                if (error != null) {
+                    Nebula.getLogger().error("Unable to reload game data: ", error);
+                } else {
+                    Nebula.getLogger().info("Game data reloaded (generation " + generation.getVersion() + ")");
+                }
+            });
+            
+            return "Reloaded the server config, game data is reloading in the background";
+        }
+        
         // Result message
         return "Reloaded the server config";
     }
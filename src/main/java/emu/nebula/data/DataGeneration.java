@@ -0,0 +1,93 @@
+package emu.nebula.data;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import lombok.Getter;
+
+/**
+ * A full set of loaded game data. Reloading resources creates a new generation that replaces the old one once it is
+ * fully loaded, so data tables never change while they are being read.
+ */
+public class DataGeneration {
+    @Getter private final int version;
+    private final Int2ObjectMap<?>[] tables;
+    private final Map<Local<?>, Object> locals;
+    private final AtomicInteger readers;
+    
+    DataGeneration(int version) {
+        this.version = version;
+        this.tables = new Int2ObjectMap<?>[DataTable.getTableCount()];
+        this.locals = new ConcurrentHashMap<>();
+        this.readers = new AtomicInteger();
+        
+        for (int i = 0; i < this.tables.length; i++) {
+            this.tables[i] = new Int2ObjectOpenHashMap<>();
+        }
+    }
+    
+    Int2ObjectMap<?> getTable(int slot) {
+        return this.tables[slot];
+    }
+    
+    /**
+     * Converts all tables to read only maps once loading is done
+     */
+    void freeze() {
+        for (int i = 0; i < this.tables.length; i++) {
+            this.tables[i] = FrozenDataMap.freeze(this.tables[i]);
+        }
+    }
+    
+    void acquire() {
+        this.readers.incrementAndGet();
+    }
+    
+    /**
+     * Releases a generation that was returned by GameData.acquireGeneration
+     */
+    public void release() {
+        this.readers.decrementAndGet();
+    }
+    
+    /**
+     * Waits until every request that acquired this generation has released it. Returns false if the timeout was reached first.
+     */
+    boolean awaitReaders(long timeout) throws InterruptedException {
+        long end = System.currentTimeMillis() + timeout;
+        
+        while (this.readers.get() > 0) {
+            if (System.currentTimeMillis() >= end) {
+                return false;
+            }
+            
+            Thread.sleep(10);
+        }
+        
+        return true;
+    }
+    
+    DataGeneration next() {
+        return new DataGeneration(this.version + 1);
+    }
+    
+    /**
+     * Data that is built by onLoad hooks outside of a data table. Each generation has its own value.
+     */
+    public static class Local<T> {
+        private final Supplier<T> initial;
+        
+        public Local(Supplier<T> initial) {
+            this.initial = initial;
+        }
+        
+        @SuppressWarnings("unchecked")
+        public T get() {
+            return (T) GameData.getGeneration().locals.computeIfAbsent(this, l -> this.initial.get());
+        }
+    }
+}
@@ -1,31 +1,46 @@
 package emu.nebula.data;
 
 import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
-import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntCollection;
 import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.ObjectCollection;
 import it.unimi.dsi.fastutil.objects.ObjectSet;
 
 public class DataTable<T> implements Iterable<T> {
-    private Int2ObjectMap<T> map;
+    private static final AtomicInteger tableCount = new AtomicInteger();
+    
+    // Index of this table's map in a data generation
+    private final int slot;
     
     public DataTable() {
-        this.map = new Int2ObjectOpenHashMap<>();
+        this.slot = tableCount.getAndIncrement();
+    }
+    
+    static int getTableCount() {
+        return tableCount.get();
+    }
+    
+    /**
+     * Returns the map of this table in the data generation that the current thread is using
+     */
+    @SuppressWarnings("unchecked")
+    private Int2ObjectMap<T> getMap() {
+        return (Int2ObjectMap<T>) GameData.getGeneration().getTable(this.slot);
     }
     
     @SuppressWarnings("unchecked")
     public void add(Object res) {
         if (res instanceof BaseDef r) {
-            this.map.put(r.getId(), (T) res);
+            this.getMap().put(r.getId(), (T) res);
         }
     }
     
     public int size() {
-        return this.map.size();
+        return this.getMap().size();
     }
     
     // Wrapper functions
@@ -34,35 +49,35 @@ public class DataTable<T> implements Iterable<T> {
      * Wrapper for {@link it.unimi.dsi.fastutil.ints.Int2ObjectMap.get}
      */
     public T get(int id) {
-        return this.map.get(id);
+        return this.getMap().get(id);
     }
 
     /**
      * Wrapper for {@link it.unimi.dsi.fastutil.ints.Int2ObjectMap.containsKey}
      */
     public boolean containsKey(int id) {
-        return this.map.containsKey(id);
+        return this.getMap().containsKey(id);
     }
 
     /**
      * Wrapper for {@link it.unimi.dsi.fastutil.ints.Int2ObjectMap.keySet}
      */
     public IntSet keySet() {
-        return this.map.keySet();
+        return this.getMap().keySet();
     }
 
     /**
      * Wrapper for {@link it.unimi.dsi.fastutil.ints.Int2ObjectMap.values}
      */
     public ObjectCollection<T> values() {
-        return this.map.values();
+        return this.getMap().values();
     }
 
     /**
      * Wrapper for {@link it.unimi.dsi.fastutil.ints.Int2ObjectMap.int2ObjectEntrySet}
      */
     public ObjectSet<Int2ObjectMap.Entry<T>> int2ObjectEntrySet() {
-        return this.map.int2ObjectEntrySet();
+        return this.getMap().int2ObjectEntrySet();
     }
     
     // Iterable/Streamable
@@ -79,7 +94,7 @@ public class DataTable<T> implements Iterable<T> {
     // Custom
     
     public IntCollection getIds() {
-        return this.map.keySet();
+        return this.getMap().keySet();
     }
     
     public IntCollection getAllIds() {
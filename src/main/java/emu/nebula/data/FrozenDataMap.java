@@ -0,0 +1,248 @@
+package emu.nebula.data;
+
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+import it.unimi.dsi.fastutil.ints.AbstractInt2ObjectMap;
+import it.unimi.dsi.fastutil.ints.AbstractIntSet;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntIterators;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import it.unimi.dsi.fastutil.objects.AbstractObjectCollection;
+import it.unimi.dsi.fastutil.objects.AbstractObjectSet;
+import it.unimi.dsi.fastutil.objects.ObjectCollection;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+import it.unimi.dsi.fastutil.objects.ObjectIterators;
+import it.unimi.dsi.fastutil.objects.ObjectSet;
+
+/**
+ * Read only map for a data table that has finished loading. Uses a flat array indexed by id for dense id ranges,
+ * pages of arrays for ids that are grouped in bands, or binary search over the sorted ids for sparse tables.
+ * Entries are always iterated in order of their ids.
+ */
+final class FrozenDataMap<T> extends AbstractInt2ObjectMap<T> {
+    private static final long serialVersionUID = 1L;
+
+    private static final int PAGE_BITS = 8;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    // Sparse tables with more entries than this use a hash map instead of binary search
+    private static final int MAX_SORTED_SIZE = 4096;
+
+    private enum Layout {
+        FLAT, PAGED, SORTED
+    }
+
+    private final Layout layout;
+    private final int[] keys;
+    private final Object[] values;
+
+    // Lookup arrays for flat and paged layouts
+    private final int offset;
+    private final Object[] flat;
+    private final Object[][] pages;
+    private final int limit;
+
+    private FrozenDataMap(Layout layout, int[] keys, Object[] values) {
+        this.layout = layout;
+        this.keys = keys;
+        this.values = values;
+        this.offset = keys.length > 0 ? keys[0] : 0;
+        this.limit = keys.length > 0 ? keys[keys.length - 1] - this.offset + 1 : 0;
+
+        if (layout == Layout.FLAT) {
+            this.flat = new Object[this.limit];
+            this.pages = null;
+
+            for (int i = 0; i < keys.length; i++) {
+                this.flat[keys[i] - this.offset] = values[i];
+            }
+        } else if (layout == Layout.PAGED) {
+            this.flat = null;
+            this.pages = new Object[(this.limit + PAGE_MASK) >>> PAGE_BITS][];
+
+            for (int i = 0; i < keys.length; i++) {
+                int index = keys[i] - this.offset;
+                var page = this.pages[index >>> PAGE_BITS];
+
+                if (page == null) {
+                    page = this.pages[index >>> PAGE_BITS] = new Object[PAGE_SIZE];
+                }
+
+                page[index & PAGE_MASK] = values[i];
+            }
+        } else {
+            this.flat = null;
+            this.pages = null;
+        }
+    }
+
+    /**
+     * Creates a read only copy of the map with the best layout for its ids
+     */
+    static <T> Int2ObjectMap<T> freeze(Int2ObjectMap<T> map) {
+        // Already frozen
+        if (map instanceof FrozenDataMap) {
+            return map;
+        }
+
+        // Sort entries by id
+        int size = map.size();
+        int[] keys = map.keySet().toIntArray();
+        Arrays.sort(keys);
+
+        Object[] values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = map.get(keys[i]);
+        }
+
+        if (size == 0) {
+            return new FrozenDataMap<>(Layout.FLAT, keys, values);
+        }
+
+        // Dense ids - at least a quarter of the range is used
+        long range = (long) keys[size - 1] - keys[0] + 1;
+
+        if (range <= size * 4L) {
+            return new FrozenDataMap<>(Layout.FLAT, keys, values);
+        }
+
+        // Banded ids - at most 8 slots are allocated per entry
+        long pages = 0;
+        int lastPage = -1;
+
+        for (int key : keys) {
+            int page = (int) (((long) key - keys[0]) >>> PAGE_BITS);
+            if (page != lastPage) {
+                pages++;
+                lastPage = page;
+            }
+        }
+
+        if (range < Integer.MAX_VALUE && pages * PAGE_SIZE <= size * 8L) {
+            return new FrozenDataMap<>(Layout.PAGED, keys, values);
+        }
+
+        // Sparse ids
+        if (size <= MAX_SORTED_SIZE) {
+            return new FrozenDataMap<>(Layout.SORTED, keys, values);
+        }
+
+        // Fallback to a hash map, entries are added in order so that iteration stays ordered by id
+        var hashMap = new Int2ObjectLinkedOpenHashMap<T>(size);
+        for (int i = 0; i < size; i++) {
+            hashMap.put(keys[i], map.get(keys[i]));
+        }
+
+        return hashMap;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T get(int id) {
+        switch (this.layout) {
+            case FLAT -> {
+                int index = id - this.offset;
+                return index >= 0 && index < this.limit ? (T) this.flat[index] : null;
+            }
+            case PAGED -> {
+                int index = id - this.offset;
+
+                if (index < 0 || index >= this.limit) {
+                    return null;
+                }
+
+                var page = this.pages[index >>> PAGE_BITS];
+                return page != null ? (T) page[index & PAGE_MASK] : null;
+            }
+            default -> {
+                int index = Arrays.binarySearch(this.keys, id);
+                return index >= 0 ? (T) this.values[index] : null;
+            }
+        }
+    }
+
+    @Override
+    public boolean containsKey(int id) {
+        return this.get(id) != null;
+    }
+
+    @Override
+    public int size() {
+        return this.keys.length;
+    }
+
+    // Views
+
+    @Override
+    public IntSet keySet() {
+        return new AbstractIntSet() {
+            @Override
+            public IntIterator iterator() {
+                return IntIterators.wrap(keys);
+            }
+
+            @Override
+            public boolean contains(int id) {
+                return containsKey(id);
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public ObjectCollection<T> values() {
+        return new AbstractObjectCollection<T>() {
+            @Override
+            public ObjectIterator<T> iterator() {
+                return ObjectIterators.wrap((T[]) values);
+            }
+
+            @Override
+            public int size() {
+                return values.length;
+            }
+        };
+    }
+
+    @Override
+    public ObjectSet<Int2ObjectMap.Entry<T>> int2ObjectEntrySet() {
+        return new AbstractObjectSet<Int2ObjectMap.Entry<T>>() {
+            @Override
+            public ObjectIterator<Int2ObjectMap.Entry<T>> iterator() {
+                return new ObjectIterator<Int2ObjectMap.Entry<T>>() {
+                    private int index;
+
+                    @Override
+                    public boolean hasNext() {
+                        return this.index < keys.length;
+                    }
+
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Int2ObjectMap.Entry<T> next() {
+                        if (!this.hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+
+                        int i = this.index++;
+                        return new AbstractInt2ObjectMap.BasicEntry<>(keys[i], (T) values[i]);
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return keys.length;
+            }
+        };
+    }
+}
@@ -5,6 +5,7 @@ import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.concurrent.Callable;
 
 import java.util.stream.Collectors;
 
@@ -131,4 +132,98 @@ public class GameData {
     
     // Score boss
     @Getter private static DataTable<ScoreBossControlDef> ScoreBossControlDataTable = new DataTable<>();
-}
\ No newline at end of file
+    
+    // Data generations - declared after the tables so that the first generation has a map for each of them
+    
+    private static volatile DataGeneration generation = new DataGeneration(0);
+    private static final ThreadLocal<DataGeneration> pinnedGeneration = new ThreadLocal<>();
+    
+    // True while a reload is loading or while requests that started on the previous generation are still running
+    private static volatile boolean reloading;
+    
+    /**
+     * Returns the data generation that the current thread reads from. This is the generation pinned to the thread
+     * if there is one, otherwise the latest generation. Pins are only checked while a reload is in progress, so
+     * that table lookups are a plain field read the rest of the time.
+     */
+    public static DataGeneration getGeneration() {
+        if (reloading) {
+            var pinned = pinnedGeneration.get();
+            
+            if (pinned != null) {
+                return pinned;
+            }
+        }
+        
+        return generation;
+    }
+    
+    public static DataGeneration getLatestGeneration() {
+        return generation;
+    }
+    
+    /**
+     * Returns the latest data generation and registers the caller as a reader of it. A reload waits for all readers
+     * of the previous generation to release it before it is finished.
+     */
+    public static DataGeneration acquireGeneration() {
+        while (true) {
+            var current = generation;
+            current.acquire();
+            
+            // Make sure a new generation was not published before we were registered
+            if (generation == current) {
+                return current;
+            }
+            
+            current.release();
+        }
+    }
+    
+    /**
+     * Runs the task with the data generation pinned to the current thread, so that it keeps reading the same data
+     * even if a reload is published while it is running.
+     */
+    public static <T> T callWith(DataGeneration pinned, Callable<T> task) throws Exception {
+        var previous = pinnedGeneration.get();
+        pinnedGeneration.set(pinned);
+        
+        try {
+            return task.call();
+        } finally {
+            if (previous != null) {
+                pinnedGeneration.set(previous);
+            } else {
+                pinnedGeneration.remove();
+            }
+        }
+    }
+    
+    /**
+     * Wraps the task so that it reads from the same data generation as the current thread when it is run on another thread
+     */
+    public static Runnable wrap(Runnable task) {
+        var pinned = getGeneration();
+        
+        return () -> {
+            try {
+                callWith(pinned, () -> {
+                    task.run();
+                    return null;
+                });
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        };
+    }
+    
+    static void setReloading(boolean value) {
+        reloading = value;
+    }
+    
+    static void publish(DataGeneration next) {
+        generation = next;
+    }
+}
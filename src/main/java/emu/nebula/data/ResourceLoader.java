@@ -2,8 +2,13 @@ package emu.nebula.data;
 
 import java.io.InputStreamReader;
 import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
 
 import org.reflections.Reflections;
 
@@ -12,7 +17,14 @@ import emu.nebula.util.Utils;
 import emu.nebula.Nebula;
 
 public class ResourceLoader {
+    // Max time (in milliseconds) that a reload waits for requests on the previous generation to finish
+    private static final long RELOAD_DRAIN_TIMEOUT = 30_000;
+    
+    // Resource files are parsed on their own pool, so that parsing never runs tasks from the common pool
+    private static final ForkJoinPool PARSE_POOL = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    
     private static boolean loaded = false;
+    private static ResourceSnapshot snapshot;
 
     // Load all resources
     public static void loadAll() {
@@ -27,54 +39,188 @@ public class ResourceLoader {
         Nebula.getLogger().info("Resource loading complete");
     }
     
+    /**
+     * Reloads all resources on a new thread
+     */
+    public static CompletableFuture<DataGeneration> reloadAsync() {
+        var future = new CompletableFuture<DataGeneration>();
+        
+        Thread.ofPlatform().name("Resource Reload").daemon().start(() -> {
+            try {
+                future.complete(reload());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        });
+        
+        return future;
+    }
+    
+    /**
+     * Loads all resources into a new data generation on the calling thread, then publishes it. Requests that are
+     * already running keep reading from the generation they started with, the reload returns once they are finished.
+     */
+    public static synchronized DataGeneration reload() throws Exception {
+        // Create new generation
+        var previous = GameData.getLatestGeneration();
+        var next = previous.next();
+        
+        GameData.setReloading(true);
+        
+        try {
+            // Load resources into it
+            GameData.callWith(next, () -> {
+                loadResources();
+                return null;
+            });
+            
+            // Publish
+            GameData.publish(next);
+            
+            // Requests that started on the previous generation are still pinned to it until they finish
+            if (!previous.awaitReaders(RELOAD_DRAIN_TIMEOUT)) {
+                Nebula.getLogger().warn("Requests using game data generation " + previous.getVersion() + " did not finish in time");
+            }
+        } finally {
+            GameData.setReloading(false);
+        }
+        
+        return next;
+    }
+    
     public static void loadResources() {
-        // Get resource classes and sort
-        List<Class<?>> classes = new Reflections(ResourceLoader.class.getPackage().getName())
-                .getTypesAnnotatedWith(ResourceType.class)
-                .stream()
-                .collect(Collectors.toList());
-
-        classes.sort((a, b) -> b.getAnnotation(ResourceType.class).loadPriority().value() - a.getAnnotation(ResourceType.class).loadPriority().value());
-
-        // Load resource
-        for (Class<?> def : classes) {
-            loadFromResource(def);
+        long start = System.nanoTime();
+        
+        // Open resource snapshot
+        String snapshotPath = Nebula.getConfig().resourceSnapshot;
+        
+        if (snapshotPath != null && !snapshotPath.isEmpty()) {
+            snapshot = ResourceSnapshot.open(Path.of(snapshotPath));
+        }
+        
+        // Get resource classes and group them by load priority, highest first
+        var tiers = new TreeMap<Integer, List<Class<?>>>(Comparator.reverseOrder());
+        
+        for (var cls : new Reflections(ResourceLoader.class.getPackage().getName()).getTypesAnnotatedWith(ResourceType.class)) {
+            int priority = cls.getAnnotation(ResourceType.class).loadPriority().value();
+            tiers.computeIfAbsent(priority, p -> new ArrayList<>()).add(cls);
         }
+        
+        // Load resources one tier at a time
+        var results = new ArrayList<ParsedResource>();
+        
+        for (var tier : tiers.values()) {
+            // Parse all files in this tier at the same time. Parsing has no side effects, so this is safe to do in parallel
+            var parsed = PARSE_POOL.submit(() -> {
+                return tier.parallelStream()
+                        .map(ResourceLoader::parseResource)
+                        .toList();
+            }).join();
+            
+            // Run onLoad hooks once the whole tier is parsed. These hooks can change other tables, so they are run on this thread
+            for (var resource : parsed) {
+                finishResource(resource);
+            }
+            
+            results.addAll(parsed);
+        }
+        
+        // Pick the lookup layout of every table now that they are fully loaded
+        GameData.getGeneration().freeze();
+        
+        // Save any tables that were loaded from json to the snapshot
+        if (snapshot != null) {
+            snapshot.save();
+            snapshot = null;
+        }
+        
+        // Timing report
+        logReport(results, System.nanoTime() - start);
     }
 
     public static void loadFromResource(Class<?> resourceClass) {
-        // Load to map
-        DataTable<?> table = getTableForResource(GameData.class, resourceClass);
-        ResourceType type = resourceClass.getAnnotation(ResourceType.class);
+        var result = parseResource(resourceClass);
+        finishResource(result);
+        logResult(result);
+    }
+    
+    /**
+     * Reads the defs of a resource class from its file without calling onLoad on them
+     */
+    private static ParsedResource parseResource(Class<?> resourceClass) {
+        // Get resource type
+        var result = new ParsedResource(resourceClass);
+        var type = resourceClass.getAnnotation(ResourceType.class);
         
         // Sanity check
         if (type == null) {
-            return;
+            return result;
         }
         
-        int count = 0;
+        long start = System.nanoTime();
         
         try {
-            // Init defs collection
-            Iterable<?> defs = null;
-            
             // Load resource file
             if (type.useInternal()) {
                 // Load from internal resources in jar
                 try (var in = ResourceLoader.class.getResourceAsStream("/defs/" + type.name()); var reader = new InputStreamReader(in)) {
-                    defs = JsonUtils.loadToList(reader, resourceClass);
+                    result.defs = JsonUtils.loadToList(reader, resourceClass);
                 } catch (Exception e) {
                     // Ignored
                 }
             } else {
-                // Load json from ./resources/bin/ folder
-                var json = JsonUtils.loadToMap(Nebula.getConfig().resourceDir + "/bin/" + type.name(), String.class, resourceClass);
+                var file = Path.of(Nebula.getConfig().resourceDir, "bin", type.name());
+                var key = snapshot != null ? ResourceSnapshot.key(file) : null;
+                
+                // Try to load from the snapshot first
+                if (snapshot != null) {
+                    result.defs = snapshot.load(type, resourceClass, key);
+                    result.fromSnapshot = result.defs != null;
+                }
                 
-                // Get json values
-                defs = json.values();
+                if (result.defs == null) {
+                    // Load json from ./resources/bin/ folder
+                    var json = JsonUtils.loadToMap(file.toString(), String.class, resourceClass);
+                    
+                    // Get json values
+                    result.defs = json.values();
+                    
+                    // Add to snapshot before onLoad changes the defs
+                    if (snapshot != null) {
+                        snapshot.store(type, resourceClass, key, json.values());
+                    }
+                }
             }
-
-            for (Object o : defs) {
+        } catch (Exception e) {
+            result.error = e;
+        }
+        
+        result.parseTime = System.nanoTime() - start;
+        return result;
+    }
+    
+    /**
+     * Calls onLoad on the parsed defs and adds them to their data table
+     */
+    private static void finishResource(ParsedResource result) {
+        // Load to map
+        DataTable<?> table = getTableForResource(GameData.class, result.resourceClass);
+        ResourceType type = result.resourceClass.getAnnotation(ResourceType.class);
+        
+        // Sanity check
+        if (type == null) {
+            return;
+        }
+        
+        long start = System.nanoTime();
+        
+        try {
+            // Rethrow parse error
+            if (result.error != null) {
+                throw result.error;
+            }
+            
+            for (Object o : result.defs) {
                 BaseDef res = (BaseDef) o;
 
                 if (res == null) {
@@ -83,7 +229,7 @@ public class ResourceLoader {
                 
                 res.onLoad();
                 
-                count++;
+                result.count++;
 
                 if (table != null) {
                     table.add(o);
@@ -94,7 +240,53 @@ public class ResourceLoader {
             Nebula.getLogger().error("Error loading resource file: " + type.name(), e);
         }
         
-        Nebula.getLogger().info("Loaded " + count + " " + resourceClass.getSimpleName() + "s.");
+        result.loadTime = System.nanoTime() - start;
+    }
+    
+    private static void logReport(List<ParsedResource> results, long totalTime) {
+        long parseTime = 0;
+        long loadTime = 0;
+        
+        for (var result : results) {
+            logResult(result);
+            
+            parseTime += result.parseTime;
+            loadTime += result.loadTime;
+        }
+        
+        Nebula.getLogger().info(
+            "Loaded " + results.size() + " resource types in " + toMillis(totalTime) + "ms " + 
+            "(parse " + toMillis(parseTime) + "ms total over " + PARSE_POOL.getParallelism() + " threads, onLoad " + toMillis(loadTime) + "ms)."
+        );
+    }
+    
+    private static void logResult(ParsedResource result) {
+        if (result.resourceClass.getAnnotation(ResourceType.class) == null) {
+            return;
+        }
+        
+        Nebula.getLogger().info(
+            "Loaded " + result.count + " " + result.resourceClass.getSimpleName() + "s" + (result.fromSnapshot ? " from snapshot" : "") + 
+            " (parse " + toMillis(result.parseTime) + "ms, onLoad " + toMillis(result.loadTime) + "ms)."
+        );
+    }
+    
+    private static long toMillis(long nanos) {
+        return nanos / 1_000_000;
+    }
+    
+    private static class ParsedResource {
+        private final Class<?> resourceClass;
+        private Iterable<?> defs;
+        private Exception error;
+        private boolean fromSnapshot;
+        private int count;
+        private long parseTime;
+        private long loadTime;
+        
+        private ParsedResource(Class<?> resourceClass) {
+            this.resourceClass = resourceClass;
+        }
     }
     
     // Utility
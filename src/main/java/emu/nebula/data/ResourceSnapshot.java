@@ -0,0 +1,437 @@
+package emu.nebula.data;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import emu.nebula.Nebula;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * Binary snapshot of parsed resource files. Defs are stored with the values their fields had right after being parsed
+ * from json, so onLoad is still called on them like normal. A table is only loaded from the snapshot if its source file
+ * (path, size and modified time) and def class have not changed since the snapshot was written, so unchanged files are
+ * never read.
+ */
+public class ResourceSnapshot {
+    private static final int MAGIC = 0x4E425253; // NBRS
+    private static final int VERSION = 2;
+
+    private static final Map<Class<?>, DefCodec> codecs = new ConcurrentHashMap<>();
+
+    private final Path path;
+    private final Map<String, Section> sections;
+    private boolean dirty;
+
+    private ResourceSnapshot(Path path) {
+        this.path = path;
+        this.sections = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Opens the snapshot at this path. Returns an empty snapshot if the file does not exist or is from an older version.
+     */
+    public static ResourceSnapshot open(Path path) {
+        var snapshot = new ResourceSnapshot(path);
+
+        if (!Files.exists(path)) {
+            return snapshot;
+        }
+
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            // Read the whole file with a single read
+            var buffer = ByteBuffer.allocate((int) channel.size());
+            while (buffer.hasRemaining() && channel.read(buffer) >= 0);
+
+            var in = new DataInputStream(new ByteArrayInputStream(buffer.array()));
+
+            // Check header
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return snapshot;
+            }
+
+            // Read sections
+            int count = in.readInt();
+
+            for (int i = 0; i < count; i++) {
+                var name = in.readUTF();
+                var className = in.readUTF();
+                long schema = in.readLong();
+                var key = new FileKey(in.readUTF(), in.readLong(), in.readLong());
+                var section = new Section(name, className, schema, key, in.readInt(), new byte[in.readInt()]);
+                in.readFully(section.data());
+
+                snapshot.sections.put(section.name(), section);
+            }
+        } catch (Exception e) {
+            Nebula.getLogger().warn("Unable to read resource snapshot, resources will be loaded from json");
+            snapshot.sections.clear();
+        }
+
+        return snapshot;
+    }
+
+    /**
+     * Returns the key of a resource file from its attributes, without reading the file. Returns null if the file does not exist.
+     */
+    public static FileKey key(Path file) {
+        try {
+            var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            return new FileKey(file.toAbsolutePath().normalize().toString(), attributes.size(), attributes.lastModifiedTime().toMillis());
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the defs of this resource from the snapshot, or null if the snapshot does not have an up to date copy of them.
+     */
+    public List<Object> load(ResourceType type, Class<?> resourceClass, FileKey key) {
+        var section = this.sections.get(type.name());
+        var codec = getCodec(resourceClass);
+
+        if (section == null || codec == null || key == null) {
+            return null;
+        }
+
+        // Make sure the source file and def class are the same as when the snapshot was written
+        if (!section.key().equals(key) || !section.className().equals(resourceClass.getName()) || section.schema() != codec.getSchema()) {
+            return null;
+        }
+
+        try {
+            var in = new DataInputStream(new ByteArrayInputStream(section.data()));
+            var defs = new ArrayList<Object>(section.count());
+
+            for (int i = 0; i < section.count(); i++) {
+                defs.add(codec.read(in));
+            }
+
+            return defs;
+        } catch (Exception e) {
+            Nebula.getLogger().warn("Unable to read " + type.name() + " from the resource snapshot: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores freshly parsed defs in the snapshot. Must be called before onLoad is called on the defs.
+     */
+    public void store(ResourceType type, Class<?> resourceClass, FileKey key, Collection<?> defs) {
+        var codec = getCodec(resourceClass);
+
+        if (codec == null || key == null) {
+            return;
+        }
+
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+            int count = 0;
+
+            for (Object def : defs) {
+                if (def == null) {
+                    continue;
+                }
+
+                codec.write(out, def);
+                count++;
+            }
+
+            this.sections.put(type.name(), new Section(type.name(), resourceClass.getName(), codec.getSchema(), key, count, bytes.toByteArray()));
+            this.dirty = true;
+        } catch (Exception e) {
+            Nebula.getLogger().warn("Unable to add " + type.name() + " to the resource snapshot: " + e);
+        }
+    }
+
+    /**
+     * Writes the snapshot to disk if any tables were added to it
+     */
+    public void save() {
+        if (!this.dirty) {
+            return;
+        }
+
+        try {
+            var bytes = new ByteArrayOutputStream();
+            var out = new DataOutputStream(bytes);
+
+            // Header
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            // Sections
+            out.writeInt(this.sections.size());
+
+            for (var section : this.sections.values()) {
+                out.writeUTF(section.name());
+                out.writeUTF(section.className());
+                out.writeLong(section.schema());
+                out.writeUTF(section.key().path());
+                out.writeLong(section.key().size());
+                out.writeLong(section.key().modified());
+                out.writeInt(section.count());
+                out.writeInt(section.data().length);
+                out.write(section.data());
+            }
+
+            // Write to a temp file first so that a crash never leaves a broken snapshot behind
+            var parent = this.path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+
+            var temp = this.path.resolveSibling(this.path.getFileName() + ".tmp");
+            Files.write(temp, bytes.toByteArray());
+            Files.move(temp, this.path, StandardCopyOption.REPLACE_EXISTING);
+
+            this.dirty = false;
+        } catch (Exception e) {
+            Nebula.getLogger().warn("Unable to write resource snapshot: " + e);
+        }
+    }
+
+    // Codecs
+
+    private static DefCodec getCodec(Class<?> resourceClass) {
+        return codecs.computeIfAbsent(resourceClass, DefCodec::create);
+    }
+
+    /**
+     * Identifies a version of a resource file
+     */
+    public static record FileKey(String path, long size, long modified) {
+
+    }
+
+    private static record Section(String name, String className, long schema, FileKey key, int count, byte[] data) {
+
+    }
+
+    private static record ValueCodec(Writer writer, Reader reader) {
+
+    }
+
+    @FunctionalInterface
+    private static interface Writer {
+        public void write(DataOutput out, Object value) throws Exception;
+    }
+
+    @FunctionalInterface
+    private static interface Reader {
+        public Object read(DataInput in) throws Exception;
+    }
+
+    /**
+     * Reads and writes the non transient fields of a def class. Returns null from create if a field has a type that we can not encode.
+     */
+    private static class DefCodec {
+        private final Constructor<?> constructor;
+        private final Field[] fields;
+        private final ValueCodec[] values;
+        private final long schema;
+
+        private DefCodec(Constructor<?> constructor, Field[] fields, ValueCodec[] values, long schema) {
+            this.constructor = constructor;
+            this.fields = fields;
+            this.values = values;
+            this.schema = schema;
+        }
+
+        public long getSchema() {
+            return this.schema;
+        }
+
+        public static DefCodec create(Class<?> cls) {
+            try {
+                var constructor = cls.getDeclaredConstructor();
+                constructor.setAccessible(true);
+
+                var fields = new ArrayList<Field>();
+                var values = new ArrayList<ValueCodec>();
+                var schema = new StringBuilder();
+
+                for (Class<?> c = cls; c != null && c != Object.class; c = c.getSuperclass()) {
+                    for (var field : c.getDeclaredFields()) {
+                        int modifiers = field.getModifiers();
+                        if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                            continue;
+                        }
+
+                        var codec = createValueCodec(field);
+                        if (codec == null) {
+                            return null;
+                        }
+
+                        field.setAccessible(true);
+                        fields.add(field);
+                        values.add(codec);
+                        schema.append(field.getName()).append(':').append(field.getGenericType().getTypeName());
+
+                        // Enums are stored by ordinal, so the snapshot is invalid if their constants change
+                        if (field.getType().isEnum()) {
+                            for (var constant : field.getType().getEnumConstants()) {
+                                schema.append(',').append(((Enum<?>) constant).name());
+                            }
+                        }
+
+                        schema.append(';');
+                    }
+                }
+
+                return new DefCodec(constructor, fields.toArray(Field[]::new), values.toArray(ValueCodec[]::new), hashSchema(schema.toString()));
+            } catch (Exception e) {
+                return null;
+            }
+        }
+
+        /**
+         * Returns the first 64 bits of the sha-256 hash of the schema string
+         */
+        private static long hashSchema(String schema) throws Exception {
+            var digest = MessageDigest.getInstance("SHA-256").digest(schema.getBytes(StandardCharsets.UTF_8));
+            return ByteBuffer.wrap(digest).getLong();
+        }
+
+        public void write(DataOutput out, Object def) throws Exception {
+            for (int i = 0; i < this.fields.length; i++) {
+                var value = this.fields[i].get(def);
+
+                if (this.fields[i].getType().isPrimitive()) {
+                    this.values[i].writer().write(out, value);
+                } else if (value == null) {
+                    out.writeBoolean(false);
+                } else {
+                    out.writeBoolean(true);
+                    this.values[i].writer().write(out, value);
+                }
+            }
+        }
+
+        public Object read(DataInput in) throws Exception {
+            var def = this.constructor.newInstance();
+
+            for (int i = 0; i < this.fields.length; i++) {
+                if (this.fields[i].getType().isPrimitive() || in.readBoolean()) {
+                    this.fields[i].set(def, this.values[i].reader().read(in));
+                } else {
+                    this.fields[i].set(def, null);
+                }
+            }
+
+            return def;
+        }
+
+        @SuppressWarnings({ "unchecked", "rawtypes" })
+        private static ValueCodec createValueCodec(Field field) {
+            var type = field.getType();
+
+            if (type == int.class) {
+                return codec((out, v) -> out.writeInt((Integer) v), DataInput::readInt);
+            } else if (type == boolean.class) {
+                return codec((out, v) -> out.writeBoolean((Boolean) v), DataInput::readBoolean);
+            } else if (type == long.class) {
+                return codec((out, v) -> out.writeLong((Long) v), DataInput::readLong);
+            } else if (type == float.class) {
+                return codec((out, v) -> out.writeFloat((Float) v), DataInput::readFloat);
+            } else if (type == double.class) {
+                return codec((out, v) -> out.writeDouble((Double) v), DataInput::readDouble);
+            } else if (type == String.class) {
+                return codec((out, v) -> writeString(out, (String) v), DefCodec::readString);
+            } else if (type == int[].class) {
+                return codec((out, v) -> writeInts(out, IntArrayList.wrap((int[]) v)), in -> readInts(in, new IntArrayList()).toIntArray());
+            } else if (type == IntArrayList.class) {
+                return codec((out, v) -> writeInts(out, (IntCollection) v), in -> readInts(in, new IntArrayList()));
+            } else if (type == IntOpenHashSet.class) {
+                return codec((out, v) -> writeInts(out, (IntCollection) v), in -> readInts(in, new IntOpenHashSet()));
+            } else if (type.isEnum()) {
+                var constants = type.getEnumConstants();
+                return codec((out, v) -> out.writeInt(((Enum) v).ordinal()), in -> constants[in.readInt()]);
+            } else if (type == Map.class && isIntegerMap(field)) {
+                return codec((out, v) -> {
+                    var map = (Map<Integer, Integer>) v;
+                    out.writeInt(map.size());
+                    for (var entry : map.entrySet()) {
+                        out.writeInt(entry.getKey());
+                        out.writeInt(entry.getValue());
+                    }
+                }, in -> {
+                    int size = in.readInt();
+                    var map = new LinkedHashMap<Integer, Integer>();
+                    for (int i = 0; i < size; i++) {
+                        map.put(in.readInt(), in.readInt());
+                    }
+                    return map;
+                });
+            }
+
+            return null;
+        }
+
+        private static boolean isIntegerMap(Field field) {
+            if (field.getGenericType() instanceof ParameterizedType type) {
+                var args = type.getActualTypeArguments();
+                return args.length == 2 && args[0] == Integer.class && args[1] == Integer.class;
+            }
+
+            return false;
+        }
+
+        private static void writeString(DataOutput out, String value) throws Exception {
+            // Not using writeUTF since it is limited to 64kb
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+
+        private static String readString(DataInput in) throws Exception {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private static void writeInts(DataOutput out, IntCollection values) throws Exception {
+            out.writeInt(values.size());
+            for (int value : values) {
+                out.writeInt(value);
+            }
+        }
+
+        private static <T extends IntCollection> T readInts(DataInput in, T values) throws Exception {
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                values.add(in.readInt());
+            }
+            return values;
+        }
+
+        private static ValueCodec codec(Writer writer, Reader reader) {
+            return new ValueCodec(writer, reader);
+        }
+    }
+}
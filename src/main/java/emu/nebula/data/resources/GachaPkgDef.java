@@ -1,6 +1,7 @@
 package emu.nebula.data.resources;
 
 import emu.nebula.data.BaseDef;
+import emu.nebula.data.DataGeneration;
 import emu.nebula.data.ResourceType;
 import emu.nebula.data.ResourceType.LoadPriority;
 import emu.nebula.util.WeightedList;
@@ -15,7 +16,7 @@ public class GachaPkgDef extends BaseDef {
     private int GoodsId;
     private int Weight;
     
-    private static final Int2ObjectMap<WeightedList<Integer>> packages = new Int2ObjectOpenHashMap<>();
+    private static final DataGeneration.Local<Int2ObjectMap<WeightedList<Integer>>> packages = new DataGeneration.Local<>(Int2ObjectOpenHashMap::new);
     
     @Override @Deprecated
     public int getId() {
@@ -23,13 +24,13 @@ public class GachaPkgDef extends BaseDef {
     }
     
     public static WeightedList<Integer> getPackageById(int packageId) {
-        return packages.get(packageId);
+        return packages.get().get(packageId);
     }
     
     @Override
     public void onLoad() {
         // Add to package
-        var list = packages.computeIfAbsent(this.getPkgId(), i -> new WeightedList<Integer>());
+        var list = packages.get().computeIfAbsent(this.getPkgId(), i -> new WeightedList<Integer>());
         list.add(this.getWeight(), this.getGoodsId());
     }
 }
@@ -3,21 +3,14 @@ package emu.nebula.database;
 import dev.morphia.annotations.Entity;
 import dev.morphia.annotations.Id;
 
+/**
+ * Id counter for a class, only read and written by the IdService
+ */
 @Entity(value = "counters", useDiscriminator = false)
 public class DatabaseCounter {
     @Id
     private String id;
-    private int count;
+    private int count; // Last id that was leased
 
     public DatabaseCounter() {}
-
-    public DatabaseCounter(String id) {
-        this.id = id;
-        this.count = 10000;
-    }
-
-    public int getNextId() {
-        int id = ++count;
-        return id;
-    }
 }
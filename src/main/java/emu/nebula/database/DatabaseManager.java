@@ -1,5 +1,6 @@
 package emu.nebula.database;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
@@ -31,7 +32,9 @@ import dev.morphia.mapping.MapperOptions;
 import dev.morphia.query.FindOptions;
 import dev.morphia.query.Sort;
 import dev.morphia.query.filters.Filters;
+import dev.morphia.query.updates.UpdateOperator;
 import dev.morphia.query.updates.UpdateOperators;
+import it.unimi.dsi.fastutil.ints.IntCollection;
 import lombok.Getter;
 
 @Getter
@@ -39,6 +42,8 @@ public final class DatabaseManager {
     @Getter
     private static MongoServer server;
     private Datastore datastore;
+    private DatabaseWriteQueue writeQueue;
+    private IdService idService;
 
     private static final InsertOneOptions INSERT_OPTIONS = new InsertOneOptions();
     private static final DeleteOptions DELETE_OPTIONS = new DeleteOptions();
@@ -108,6 +113,18 @@ public final class DatabaseManager {
         // Ensure indexes
         ensureIndexes();
         
+        // Start write queue for game data
+        var writeQueueOptions = Nebula.getConfig().getWriteQueue();
+        
+        if (type.runGame() && writeQueueOptions.isEnabled()) {
+            this.writeQueue = new DatabaseWriteQueue(this, writeQueueOptions);
+        }
+        
+        // Id service
+        if (type.runGame()) {
+            this.idService = new IdService(this, Nebula.getConfig().getIdBlockSize());
+        }
+        
         // Done
         Nebula.getLogger().info("Connected to the MongoDB database at " + connectionString);
     }
@@ -186,30 +203,52 @@ public final class DatabaseManager {
         return result.getDeletedCount() > 0;
     }
     
+    /**
+     * Creates an update for a single document. Add update operators to it and call execute() to write them all at once.
+     */
+    public DatabaseUpdate update(Object obj, int uid) {
+        return new DatabaseUpdate(this, obj.getClass(), uid);
+    }
+    
     public void update(Object obj, int uid, String field, Object item) {
         update(obj, uid, field, item, false);
     }
     
     public void update(Object obj, int uid, String field, Object value, boolean upsert) {
-        var opt = new UpdateOptions().upsert(upsert);
-        
-        getDatastore().find(obj.getClass())
-            .filter(Filters.eq("_id", uid))
-            .update(opt, UpdateOperators.set(field, value));
+        this.update(obj, uid)
+            .set(field, value)
+            .upsert(upsert)
+            .execute();
     }
     
-    // TODO optimize to not require 2 db calls
-    public void update(Object obj, int uid, String field, Object value, String field2, Object value2) {
-        /*
-        getDatastore().find(obj.getClass())
-            .filter(Filters.eq("_id", uid))
-            .update(UpdateOperators.set(field, value), UpdateOperators.set(field2, value2));
-        */
-        update(obj, uid, field, value);
-        update(obj, uid, field2, value2);
+    void execute(DatabaseUpdate update) {
+        if (this.writeQueue != null) {
+            this.writeQueue.update(update);
+            return;
+        }
+        
+        // Convert to morphia update operators
+        var operators = new ArrayList<UpdateOperator>();
+        
+        update.getSets().forEach((field, value) -> operators.add(UpdateOperators.set(field, value)));
+        update.getIncs().forEach((field, amount) -> operators.add(UpdateOperators.inc(field, amount)));
+        update.getAddToSets().forEach((field, values) -> operators.add(UpdateOperators.addToSet(field, values)));
+        update.getPulls().forEach((field, values) -> operators.add(UpdateOperators.pullAll(field, values)));
+        
+        // Update
+        var opt = new UpdateOptions().upsert(update.isUpsert());
+        
+        getDatastore().find(update.getType())
+            .filter(Filters.eq("_id", update.getUid()))
+            .update(opt, operators.toArray(UpdateOperator[]::new));
     }
     
     public void updateNested(Object obj, int uid, String filter, int filterId, String field, Object item) {
+        if (this.writeQueue != null) {
+            this.writeQueue.updateNested(obj.getClass(), uid, filter, filterId, field, item);
+            return;
+        }
+        
         var opt = new UpdateOptions().upsert(false);
         
         getDatastore().find(obj.getClass())
@@ -219,26 +258,79 @@ public final class DatabaseManager {
     }
     
     public void addToSet(Object obj, int uid, String field, Object item) {
-        var opt = new UpdateOptions().upsert(false);
-        
-        getDatastore().find(obj.getClass())
-            .filter(Filters.eq("_id", uid))
-            .update(opt, UpdateOperators.addToSet(field, item));
+        this.update(obj, uid)
+            .addToSet(field, item)
+            .execute();
     }
     
-    // Database counter
+    // Write queue
     
-    public synchronized int getNextObjectId(Class<?> c) {
-        DatabaseCounter counter = getDatastore().find(DatabaseCounter.class).filter(Filters.eq("_id", c.getSimpleName())).first();
-        if (counter == null) {
-            counter = new DatabaseCounter(c.getSimpleName());
+    /**
+     * Saves the object through the write queue if it is enabled. The object will be written to the database on the next flush.
+     */
+    public <T> void queueSave(T obj) {
+        if (this.writeQueue != null) {
+            this.writeQueue.save(obj);
+        } else {
+            this.save(obj);
         }
-        try {
-            return counter.getNextId();
-        } finally {
-            getDatastore().save(counter);
+    }
+    
+    /**
+     * Deletes the object through the write queue if it is enabled. The object will be deleted from the database on the next flush.
+     */
+    public <T> void queueDelete(T obj) {
+        if (this.writeQueue != null) {
+            this.writeQueue.delete(obj);
+        } else {
+            this.delete(obj);
+        }
+    }
+    
+    /**
+     * Writes any queued changes to the database. Blocks until all changes have been written.
+     */
+    public void flush() {
+        if (this.writeQueue != null) {
+            this.writeQueue.flush();
         }
     }
+    
+    /**
+     * Writes any queued changes of this player to the database. Blocks until the player's changes have been written.
+     * @return False if some changes could not be written, they stay queued
+     */
+    public boolean flush(int playerUid) {
+        return this.writeQueue == null || this.writeQueue.flush(playerUid);
+    }
+    
+    /**
+     * Writes any queued changes of these players to the database. Blocks until their changes have been written.
+     * @return False if some changes could not be written, they stay queued
+     */
+    public boolean flush(IntCollection playerUids) {
+        return this.writeQueue == null || this.writeQueue.flush(playerUids);
+    }
+    
+    /**
+     * Writes any queued changes of this collection to the database. Blocks until its changes have been written.
+     * @return False if some changes could not be written, they stay queued
+     */
+    public boolean flush(Class<?> type) {
+        return this.writeQueue == null || this.writeQueue.flush(type);
+    }
+    
+    public void shutdown() {
+        if (this.writeQueue != null) {
+            this.writeQueue.shutdown();
+        }
+    }
+
+    // Database counter
+    
+    public int getNextObjectId(Class<?> c) {
+        return this.getIdService().getNextId(c);
+    }
 
     // Internal MongoDB server
 
@@ -0,0 +1,97 @@
+package emu.nebula.database;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Collects update operators for a single document so that they can be written with one database call.
+ */
+@Getter
+public class DatabaseUpdate {
+    private final DatabaseManager database;
+    private final Class<?> type;
+    private final int uid;
+
+    private final Map<String, Object> sets;
+    private final Map<String, Number> incs;
+    private final Map<String, List<Object>> addToSets;
+    private final Map<String, List<Object>> pulls;
+    private boolean upsert;
+
+    public DatabaseUpdate(DatabaseManager database, Class<?> type, int uid) {
+        this.database = database;
+        this.type = type;
+        this.uid = uid;
+
+        this.sets = new LinkedHashMap<>();
+        this.incs = new LinkedHashMap<>();
+        this.addToSets = new LinkedHashMap<>();
+        this.pulls = new LinkedHashMap<>();
+    }
+
+    public boolean isEmpty() {
+        return sets.isEmpty() && incs.isEmpty() && addToSets.isEmpty() && pulls.isEmpty();
+    }
+
+    public DatabaseUpdate set(String field, Object value) {
+        this.sets.put(field, value);
+        return this;
+    }
+
+    public DatabaseUpdate inc(String field, Number amount) {
+        this.incs.merge(field, amount, (a, b) -> {
+            if (a instanceof Long || b instanceof Long) {
+                return a.longValue() + b.longValue();
+            }
+            return a.intValue() + b.intValue();
+        });
+        return this;
+    }
+
+    /**
+     * Adds the value to an array field. If the value is a collection, each element of it is added instead.
+     */
+    public DatabaseUpdate addToSet(String field, Object value) {
+        addValues(this.addToSets, field, value);
+        return this;
+    }
+
+    /**
+     * Removes all instances of the value from an array field. If the value is a collection, each element of it is removed instead.
+     */
+    public DatabaseUpdate pull(String field, Object value) {
+        addValues(this.pulls, field, value);
+        return this;
+    }
+
+    public DatabaseUpdate upsert(boolean upsert) {
+        this.upsert = upsert;
+        return this;
+    }
+
+    /**
+     * Writes this update to the database
+     */
+    public void execute() {
+        if (this.isEmpty()) {
+            return;
+        }
+
+        this.getDatabase().execute(this);
+    }
+
+    private static void addValues(Map<String, List<Object>> map, String field, Object value) {
+        var list = map.computeIfAbsent(field, f -> new ArrayList<>());
+
+        if (value instanceof Collection<?> values) {
+            list.addAll(values);
+        } else {
+            list.add(value);
+        }
+    }
+}
@@ -0,0 +1,617 @@
+package emu.nebula.database;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import org.bson.BsonArray;
+import org.bson.BsonBoolean;
+import org.bson.BsonDocument;
+import org.bson.BsonDocumentWriter;
+import org.bson.BsonInt32;
+import org.bson.BsonNull;
+import org.bson.BsonString;
+import org.bson.BsonValue;
+import org.bson.codecs.Codec;
+import org.bson.codecs.EncoderContext;
+import org.bson.codecs.configuration.CodecRegistry;
+import org.bson.conversions.Bson;
+
+import com.mongodb.ErrorCategory;
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.BulkWriteOptions;
+import com.mongodb.client.model.DeleteOneModel;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.ReplaceOneModel;
+import com.mongodb.client.model.ReplaceOptions;
+import com.mongodb.client.model.UpdateOneModel;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.WriteModel;
+
+import emu.nebula.Nebula;
+import emu.nebula.Config.WriteQueueOptions;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import lombok.Getter;
+
+/**
+ * Write-behind queue for the game database. Writes are recorded per document and coalesced, then flushed
+ * to the database in one bulk write per collection. Entities and values are encoded to bson when they are
+ * queued, so the flushing thread never reads live game objects.
+ */
+public final class DatabaseWriteQueue implements Runnable {
+    private static final EncoderContext ENCODER_CONTEXT = EncoderContext.builder().build();
+    private static final EncoderContext ENTITY_ENCODER_CONTEXT = EncoderContext.builder().isEncodingCollectibleDocument(true).build();
+    private static final ReplaceOptions REPLACE_OPTIONS = new ReplaceOptions().upsert(true);
+    private static final BulkWriteOptions BULK_OPTIONS = new BulkWriteOptions().ordered(true);
+    private static final int MAX_WRITE_ATTEMPTS = 5;
+    private static final long MAX_RETRY_DELAY = 30_000;
+    private static final long SHUTDOWN_TIMEOUT = 30_000;
+
+    private final DatabaseManager database;
+    private final CodecRegistry codecRegistry;
+    private final int maxPendingWrites;
+    private final long flushInterval;
+
+    private final Map<WriteKey, PendingWrite> pending;
+    private final Map<Class<?>, MongoCollection<BsonDocument>> collections;
+
+    private final ScheduledExecutorService executor;
+    private final AtomicBoolean flushRequested;
+    private final Object flushLock;
+
+    // Retry backoff after failed flushes
+    private int failures;
+    private volatile long retryTime;
+
+    public DatabaseWriteQueue(DatabaseManager database, WriteQueueOptions options) {
+        this.database = database;
+        this.codecRegistry = database.getDatastore().getCodecRegistry();
+        this.maxPendingWrites = Math.max(options.getMaxPendingWrites(), 1);
+        this.flushInterval = Math.max(options.getFlushInterval(), 10);
+
+        this.pending = new ConcurrentHashMap<>();
+        this.collections = new ConcurrentHashMap<>();
+
+        this.flushRequested = new AtomicBoolean();
+        this.flushLock = new Object();
+
+        // Start flush loop
+        this.executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            var thread = new Thread(r, "Database Write Queue");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.executor.scheduleWithFixedDelay(this, this.flushInterval, this.flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public int size() {
+        return this.pending.size();
+    }
+
+    // Queue functions
+
+    /**
+     * Queues a full save of the entity. Any field updates queued before this are discarded, as the entity
+     * already contains their values.
+     */
+    public void save(Object obj) {
+        // Encode entity now so that later changes to the object are not written by the flush thread
+        var document = this.encodeEntity(obj);
+        var id = document.get("_id");
+
+        // Entity has no id yet, let morphia generate one for us
+        if (id == null) {
+            this.database.save(obj);
+            return;
+        }
+
+        var model = new ReplaceOneModel<>(Filters.eq("_id", id), document, REPLACE_OPTIONS);
+
+        this.queue(new WriteKey(obj.getClass(), id), getOwner(document), write -> write.reset(model));
+    }
+
+    public void delete(Object obj) {
+        // Skip if the entity was never saved
+        var document = this.encodeEntity(obj);
+        var id = document.get("_id");
+
+        if (id == null) {
+            return;
+        }
+
+        var model = new DeleteOneModel<BsonDocument>(Filters.eq("_id", id));
+
+        this.queue(new WriteKey(obj.getClass(), id), getOwner(document), write -> write.reset(model));
+    }
+
+    public void update(DatabaseUpdate update) {
+        var id = new BsonInt32(update.getUid());
+        var filter = Filters.eq("_id", id);
+
+        // Encode set values now
+        var sets = new BsonDocument();
+        update.getSets().forEach((field, value) -> sets.put(field, this.encodeValue(value)));
+
+        // Encode the other operators
+        var operators = new BsonDocument();
+
+        if (!update.getIncs().isEmpty()) {
+            var incs = new BsonDocument();
+            update.getIncs().forEach((field, amount) -> incs.put(field, this.encodeValue(amount)));
+            operators.put("$inc", incs);
+        }
+
+        if (!update.getAddToSets().isEmpty()) {
+            var addToSets = new BsonDocument();
+            update.getAddToSets().forEach((field, values) -> addToSets.put(field, new BsonDocument("$each", this.encodeArray(values))));
+            operators.put("$addToSet", addToSets);
+        }
+
+        if (!update.getPulls().isEmpty()) {
+            var pulls = new BsonDocument();
+            update.getPulls().forEach((field, values) -> pulls.put(field, this.encodeArray(values)));
+            operators.put("$pullAll", pulls);
+        }
+
+        if (sets.isEmpty() && operators.isEmpty()) {
+            return;
+        }
+
+        this.queue(new WriteKey(update.getType(), id), update.getUid(), write -> {
+            if (operators.isEmpty()) {
+                // Only sets, these can be coalesced with other sets to the same document
+                write.addSets(filter, sets, update.isUpsert());
+            } else {
+                // Write all operators of this update together
+                if (!sets.isEmpty()) {
+                    operators.put("$set", sets);
+                }
+
+                write.addUpdate(new UpdateOneModel<>(filter, operators, new UpdateOptions().upsert(update.isUpsert())));
+            }
+        });
+    }
+
+    public void updateNested(Class<?> cls, int uid, String filter, int filterId, String field, Object value) {
+        var id = new BsonInt32(uid);
+        var update = new BsonDocument("$set", new BsonDocument(field, this.encodeValue(value)));
+        var model = new UpdateOneModel<BsonDocument>(Filters.and(Filters.eq("_id", id), Filters.eq(filter, filterId)), update);
+
+        this.queue(new WriteKey(cls, id), uid, write -> write.addUpdate(model));
+    }
+
+    private void queue(WriteKey key, int owner, Consumer<PendingWrite> consumer) {
+        this.pending.compute(key, (k, write) -> {
+            if (write == null) {
+                write = new PendingWrite(k, owner);
+            }
+
+            consumer.accept(write);
+            return write;
+        });
+
+        this.checkPendingSize();
+    }
+
+    /**
+     * Returns the uid of the player that owns this document, used for flushing the writes of a single player
+     */
+    private static int getOwner(BsonDocument document) {
+        // Player data that is stored in its own collection
+        if (document.get("playerUid") instanceof BsonInt32 uid) {
+            return uid.getValue();
+        }
+
+        // Player data that is stored with the player uid as its id
+        if (document.get("_id") instanceof BsonInt32 uid) {
+            return uid.getValue();
+        }
+
+        return 0;
+    }
+
+    private void checkPendingSize() {
+        // Flush early on the queue thread if too many documents are waiting
+        if (this.pending.size() >= this.maxPendingWrites && !this.executor.isShutdown() && this.flushRequested.compareAndSet(false, true)) {
+            this.executor.execute(this);
+        }
+    }
+
+    // Flush
+
+    @Override
+    public void run() {
+        // Wait before retrying after a failed flush
+        if (System.currentTimeMillis() < this.retryTime) {
+            return;
+        }
+
+        try {
+            this.flush();
+        } catch (Exception e) {
+            Nebula.getLogger().error("Database write queue flush error: ", e);
+        }
+    }
+
+    /**
+     * Writes all queued changes to the database. Blocks until the writes are complete.
+     * @return False if some changes could not be written, these changes are queued again
+     */
+    public boolean flush() {
+        return this.flush(null);
+    }
+
+    /**
+     * Writes the queued changes of a single player to the database. Blocks until the writes are complete.
+     * @return False if some changes could not be written, these changes are queued again
+     */
+    public boolean flush(int playerUid) {
+        return this.flush(write -> write.getOwner() == playerUid);
+    }
+
+    /**
+     * Writes the queued changes of these players to the database. Blocks until the writes are complete.
+     * @return False if some changes could not be written, these changes are queued again
+     */
+    public boolean flush(IntCollection playerUids) {
+        var uids = new IntOpenHashSet(playerUids);
+        return this.flush(write -> uids.contains(write.getOwner()));
+    }
+
+    /**
+     * Writes the queued changes of a single collection to the database. Blocks until the writes are complete.
+     * @return False if some changes could not be written, these changes are queued again
+     */
+    public boolean flush(Class<?> type) {
+        return this.flush(write -> write.getKey().type() == type);
+    }
+
+    private boolean flush(Predicate<PendingWrite> filter) {
+        // Only one flush at a time, so that writes to the same document are never reordered
+        synchronized (this.flushLock) {
+            if (filter == null) {
+                this.flushRequested.set(false);
+            } else if (System.currentTimeMillis() < this.retryTime) {
+                // Dont let player flushes retry while the database is having issues
+                return !this.hasPending(filter);
+            }
+
+            if (this.pending.isEmpty()) {
+                return true;
+            }
+
+            // Drain pending writes and group them by collection
+            var batches = new LinkedHashMap<Class<?>, Batch>();
+
+            for (var entry : this.pending.entrySet()) {
+                if (filter != null && !filter.test(entry.getValue())) {
+                    continue;
+                }
+
+                var write = this.pending.remove(entry.getKey());
+                if (write == null) {
+                    continue;
+                }
+
+                batches.computeIfAbsent(entry.getKey().type(), t -> new Batch()).add(write);
+            }
+
+            // Bulk write to each collection
+            boolean success = true;
+
+            for (var entry : batches.entrySet()) {
+                success &= this.write(entry.getKey(), entry.getValue());
+            }
+
+            // Back off from retrying on the flush loop if the database is having issues
+            if (success) {
+                this.failures = 0;
+                this.retryTime = 0;
+            } else {
+                this.failures = Math.min(this.failures + 1, 10);
+                this.retryTime = System.currentTimeMillis() + Math.min(this.flushInterval << this.failures, MAX_RETRY_DELAY);
+            }
+
+            return success;
+        }
+    }
+
+    private boolean hasPending(Predicate<PendingWrite> filter) {
+        for (var write : this.pending.values()) {
+            if (filter.test(write)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private boolean write(Class<?> type, Batch batch) {
+        if (batch.models.isEmpty()) {
+            return true;
+        }
+
+        try {
+            this.getCollection(type).bulkWrite(batch.models, BULK_OPTIONS);
+            return true;
+        } catch (MongoBulkWriteException e) {
+            // Writes are ordered, so every model before the first error was written
+            if (e.getWriteErrors().isEmpty()) {
+                Nebula.getLogger().error("Queued changes to " + type.getSimpleName() + " were written with a write concern error: ", e);
+                return true;
+            }
+
+            var error = e.getWriteErrors().get(0);
+            int index = error.getIndex();
+            Nebula.getLogger().error("Unable to write " + (batch.models.size() - index) + " queued changes to " + type.getSimpleName() + ", retrying: ", e);
+
+            // Only the document that was rejected counts the attempt, timeouts are retried like any other database issue
+            boolean rejected = error.getCategory() != ErrorCategory.EXECUTION_TIMEOUT;
+            this.requeue(batch, index, rejected ? batch.writes.get(index) : null);
+        } catch (Exception e) {
+            // Connection issues, timeouts and primary changes, nothing was rejected so no attempts are counted
+            Nebula.getLogger().error("Unable to write " + batch.models.size() + " queued changes to " + type.getSimpleName() + ", retrying: ", e);
+
+            this.requeue(batch, 0, null);
+        }
+
+        return false;
+    }
+
+    /**
+     * Queues the unwritten models of a batch again, in front of any writes that were queued since the batch was drained
+     * @param rejected The document that the database rejected, only this document counts the failed attempt
+     */
+    private void requeue(Batch batch, int start, PendingWrite rejected) {
+        // Group unwritten models by document
+        var failed = new LinkedHashMap<PendingWrite, List<WriteModel<BsonDocument>>>();
+
+        for (int i = start; i < batch.models.size(); i++) {
+            failed.computeIfAbsent(batch.writes.get(i), w -> new ArrayList<>()).add(batch.models.get(i));
+        }
+
+        for (var entry : failed.entrySet()) {
+            var write = entry.getKey();
+            int attempts = write.getAttempts();
+
+            if (write == rejected) {
+                attempts++;
+
+                // Give up on documents that keep being rejected, so that they dont block the writes after them forever
+                if (attempts >= MAX_WRITE_ATTEMPTS) {
+                    Nebula.getLogger().error("Dropping " + entry.getValue().size() + " queued changes to " + write.getKey().type().getSimpleName() + " " + write.getKey().id() + " after " + attempts + " attempts");
+                    continue;
+                }
+            }
+
+            var retry = new PendingWrite(write.getKey(), write.getOwner(), attempts, entry.getValue());
+
+            this.pending.merge(write.getKey(), retry, (newer, old) -> old.append(newer));
+        }
+    }
+
+    /**
+     * Flushes all queued writes and stops the flush loop. Keeps retrying for a while if the database is having issues,
+     * any writes that are still queued after that are dumped to a file.
+     */
+    public void shutdown() {
+        this.executor.shutdown();
+
+        long deadline = System.currentTimeMillis() + SHUTDOWN_TIMEOUT;
+
+        while (!this.flush()) {
+            long time = System.currentTimeMillis();
+
+            if (time >= deadline) {
+                this.dumpPending();
+                return;
+            }
+
+            try {
+                Thread.sleep(Math.min(Math.max(this.retryTime - time, this.flushInterval), deadline - time));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                this.dumpPending();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Writes all queued writes to a file, one json document per model, so that they can be restored by hand
+     */
+    private void dumpPending() {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+
+        var file = new File("unwritten_changes_" + System.currentTimeMillis() + ".jsonl");
+        var lines = new ArrayList<String>();
+
+        for (var write : this.pending.values()) {
+            for (var model : write.getModels()) {
+                lines.add(this.describe(write.getKey(), model).toJson());
+            }
+        }
+
+        try {
+            Files.write(file.toPath(), lines);
+            Nebula.getLogger().error("Unable to write " + lines.size() + " queued changes to the database, saved them to " + file.getPath());
+        } catch (Exception e) {
+            Nebula.getLogger().error("Unable to write " + lines.size() + " queued changes to the database or to " + file.getPath() + ", these changes are lost: ", e);
+        }
+    }
+
+    private BsonDocument describe(WriteKey key, WriteModel<BsonDocument> model) {
+        var document = new BsonDocument("collection", new BsonString(key.type().getSimpleName()));
+        document.put("id", key.id());
+
+        if (model instanceof ReplaceOneModel<BsonDocument> replace) {
+            document.put("replace", replace.getReplacement());
+        } else if (model instanceof UpdateOneModel<BsonDocument> update) {
+            document.put("update", update.getUpdate().toBsonDocument(BsonDocument.class, this.codecRegistry));
+        } else if (model instanceof DeleteOneModel<BsonDocument>) {
+            document.put("delete", BsonBoolean.TRUE);
+        }
+
+        return document;
+    }
+
+    // Encoding
+
+    private MongoCollection<BsonDocument> getCollection(Class<?> cls) {
+        return this.collections.computeIfAbsent(cls, c -> {
+            return this.database.getDatastore().getCollection(c).withDocumentClass(BsonDocument.class);
+        });
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private BsonDocument encodeEntity(Object obj) {
+        var document = new BsonDocument();
+        Codec codec = this.codecRegistry.get(obj.getClass());
+        codec.encode(new BsonDocumentWriter(document), obj, ENTITY_ENCODER_CONTEXT);
+        return document;
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private BsonValue encodeValue(Object value) {
+        if (value == null) {
+            return BsonNull.VALUE;
+        }
+
+        // Encode the value as the only field of a temporary document
+        var document = new BsonDocument();
+        var writer = new BsonDocumentWriter(document);
+        Codec codec = this.codecRegistry.get(value.getClass());
+
+        writer.writeStartDocument();
+        writer.writeName("v");
+        codec.encode(writer, value, ENCODER_CONTEXT);
+        writer.writeEndDocument();
+
+        return document.get("v");
+    }
+
+    private BsonArray encodeArray(Collection<?> values) {
+        var array = new BsonArray();
+        for (var value : values) {
+            array.add(this.encodeValue(value));
+        }
+        return array;
+    }
+
+    // Internal classes
+
+    private static record WriteKey(Class<?> type, BsonValue id) {
+
+    }
+
+    /**
+     * Drained writes for a single collection, with the pending write that each model came from
+     */
+    private static class Batch {
+        private final List<WriteModel<BsonDocument>> models = new ArrayList<>();
+        private final List<PendingWrite> writes = new ArrayList<>();
+
+        public void add(PendingWrite write) {
+            for (var model : write.getModels()) {
+                this.models.add(model);
+                this.writes.add(write);
+            }
+        }
+    }
+
+    /**
+     * Queued writes for a single document, in the order that they were queued. Only accessed from inside
+     * ConcurrentHashMap.compute until it is drained.
+     */
+    @Getter
+    private static class PendingWrite {
+        private final WriteKey key;
+        private final int owner;
+        private final int attempts;
+        private final List<WriteModel<BsonDocument>> models;
+
+        // Set document of the last model, if the last model only sets fields
+        private BsonDocument sets;
+        private boolean upsert;
+
+        public PendingWrite(WriteKey key, int owner) {
+            this(key, owner, 0, new ArrayList<>());
+        }
+
+        public PendingWrite(WriteKey key, int owner, int attempts, List<WriteModel<BsonDocument>> models) {
+            this.key = key;
+            this.owner = owner;
+            this.attempts = attempts;
+            this.models = models;
+        }
+
+        /**
+         * Replaces all queued writes with a full save or delete, as it overwrites all previous changes
+         */
+        public void reset(WriteModel<BsonDocument> model) {
+            this.models.clear();
+            this.models.add(model);
+            this.sets = null;
+        }
+
+        public void addSets(Bson filter, BsonDocument sets, boolean upsert) {
+            // Merge into the previous sets if nothing else was queued after them. Later sets to the same field overwrite the earlier value
+            if (this.sets != null) {
+                this.sets.putAll(sets);
+
+                if (upsert && !this.upsert) {
+                    this.upsert = true;
+                    this.models.set(this.models.size() - 1, createSetModel(filter, this.sets, true));
+                }
+
+                return;
+            }
+
+            this.sets = sets;
+            this.upsert = upsert;
+            this.models.add(createSetModel(filter, sets, upsert));
+        }
+
+        public void addUpdate(WriteModel<BsonDocument> model) {
+            this.models.add(model);
+            this.sets = null;
+        }
+
+        /**
+         * Adds writes that were queued after this one. Returns the merged writes.
+         */
+        public PendingWrite append(PendingWrite newer) {
+            // Newer writes start with a full save or delete, so these writes are not needed anymore
+            var first = newer.getModels().get(0);
+
+            if (first instanceof ReplaceOneModel || first instanceof DeleteOneModel) {
+                return newer;
+            }
+
+            this.models.addAll(newer.getModels());
+            this.sets = newer.sets;
+            this.upsert = newer.upsert;
+
+            return this;
+        }
+
+        private static WriteModel<BsonDocument> createSetModel(Bson filter, BsonDocument sets, boolean upsert) {
+            return new UpdateOneModel<>(filter, new BsonDocument("$set", sets), new UpdateOptions().upsert(upsert));
+        }
+    }
+}
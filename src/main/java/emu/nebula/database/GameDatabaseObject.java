@@ -5,7 +5,7 @@ import emu.nebula.Nebula;
 public interface GameDatabaseObject {
 
     public default void save() {
-        Nebula.getGameDatabase().save(this);
+        Nebula.getGameDatabase().queueSave(this);
     }
     
 }
@@ -0,0 +1,104 @@
+package emu.nebula.database;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.bson.Document;
+
+import com.mongodb.client.MongoCollection;
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.FindOneAndUpdateOptions;
+import com.mongodb.client.model.ReturnDocument;
+import com.mongodb.client.model.UpdateOptions;
+import com.mongodb.client.model.Updates;
+
+/**
+ * Hands out unique ids for database objects. Ids are leased from the counters collection in blocks with an atomic
+ * increment, so game servers that share a database never get the same id. Ids inside a leased block are handed out
+ * without locking, only leasing the next block is synchronized.
+ */
+public class IdService {
+    public static final int DEFAULT_INITIAL_ID = 10000;
+
+    private final MongoCollection<Document> counters;
+    private final int blockSize;
+    private final Map<String, Counter> blocks;
+
+    public IdService(DatabaseManager database, int blockSize) {
+        this.counters = database.getDatastore().getCollection(DatabaseCounter.class).withDocumentClass(Document.class);
+        this.blockSize = Math.max(blockSize, 1);
+        this.blocks = new ConcurrentHashMap<>();
+    }
+
+    public int getNextId(Class<?> c) {
+        return this.getNextId(c, DEFAULT_INITIAL_ID);
+    }
+
+    /**
+     * Returns the next id for this class. The first id handed out is greater than the initial id.
+     */
+    public int getNextId(Class<?> c, int initialId) {
+        var counter = this.blocks.computeIfAbsent(c.getSimpleName(), name -> new Counter(name, initialId));
+        return counter.next();
+    }
+
+    /**
+     * Atomically reserves the next block of ids in the database. Returns the last id of the block.
+     */
+    private int lease(String name, int initialId) {
+        // Create counter if it doesnt exist, existing counters are not changed
+        this.counters.updateOne(
+            Filters.eq("_id", name),
+            Updates.setOnInsert("count", initialId),
+            new UpdateOptions().upsert(true)
+        );
+
+        // Reserve block
+        var counter = this.counters.findOneAndUpdate(
+            Filters.eq("_id", name),
+            Updates.inc("count", this.blockSize),
+            new FindOneAndUpdateOptions().returnDocument(ReturnDocument.AFTER)
+        );
+
+        return counter.getInteger("count");
+    }
+
+    // Internal classes
+
+    private static record Block(AtomicInteger next, int last) {
+
+    }
+
+    private class Counter {
+        private final String name;
+        private final int initialId;
+        private final AtomicReference<Block> block;
+
+        public Counter(String name, int initialId) {
+            this.name = name;
+            this.initialId = initialId;
+            this.block = new AtomicReference<>(new Block(new AtomicInteger(1), 0));
+        }
+
+        public int next() {
+            while (true) {
+                var current = this.block.get();
+                int id = current.next().getAndIncrement();
+
+                if (id <= current.last()) {
+                    return id;
+                }
+
+                // Block is used up, only one thread leases the next one
+                synchronized (this) {
+                    if (this.block.get() == current) {
+                        int last = lease(this.name, this.initialId);
+                        this.block.set(new Block(new AtomicInteger(last - blockSize + 1), last));
+                    }
+                }
+            }
+        }
+    }
+}
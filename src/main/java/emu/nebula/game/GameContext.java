@@ -2,32 +2,41 @@ package emu.nebula.game;
 
 import java.time.Instant;
 import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import emu.nebula.GameConstants;
 import emu.nebula.Nebula;
+import emu.nebula.game.friends.FriendRecommendationModule;
 import emu.nebula.game.gacha.GachaModule;
+import emu.nebula.game.mail.GlobalMailModule;
 import emu.nebula.game.player.PlayerModule;
 import emu.nebula.game.scoreboss.ScoreBossModule;
 import emu.nebula.game.tutorial.TutorialModule;
 import emu.nebula.net.GameSession;
 import emu.nebula.util.Utils;
-import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
-import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
-
+import lombok.AccessLevel;
 import lombok.Getter;
 
 @Getter
 public class GameContext implements Runnable {
-    private final Object2ObjectMap<String, GameSession> sessions;
+    private final Map<String, GameSession> sessions;
+    @Getter(AccessLevel.NONE)
+    private final PriorityBlockingQueue<SessionExpiry> sessionExpiryQueue;
     
     // Modules
     private final PlayerModule playerModule;
     private final GachaModule gachaModule;
     private final TutorialModule tutorialModule;
     private final ScoreBossModule scoreBossModule;
+    private final FriendRecommendationModule friendRecommendationModule;
+    private final GlobalMailModule globalMailModule;
     
     // Game loop
     private final ScheduledExecutorService scheduler;
@@ -37,61 +46,109 @@ public class GameContext implements Runnable {
     private int epochWeeks;
     
     public GameContext() {
-        this.sessions = new Object2ObjectOpenHashMap<>();
+        this.sessions = new ConcurrentHashMap<>();
+        this.sessionExpiryQueue = new PriorityBlockingQueue<>(64, Comparator.comparingLong(SessionExpiry::deadline));
         
         // Setup game modules
         this.playerModule = new PlayerModule(this);
         this.gachaModule = new GachaModule(this);
         this.tutorialModule = new TutorialModule(this);
         this.scoreBossModule = new ScoreBossModule(this);
+        this.friendRecommendationModule = new FriendRecommendationModule(this);
+        this.globalMailModule = new GlobalMailModule(this);
         
         // Run game loop
         this.scheduler = Executors.newScheduledThreadPool(1);
         this.scheduler.scheduleAtFixedRate(this, 0, 1, TimeUnit.SECONDS);
     }
     
-    public synchronized GameSession getSessionByToken(String token) {
+    public GameSession getSessionByToken(String token) {
         return sessions.get(token);
     }
     
-    public synchronized void addSession(GameSession session) {
+    public void addSession(GameSession session) {
         this.sessions.put(session.getToken(), session);
+        this.scheduleExpiry(session);
     }
 
-    public synchronized void generateSessionToken(GameSession session) {
+    public void generateSessionToken(GameSession session) {
         // Remove token
-        if (session.getToken() != null) {
-            this.sessions.remove(session.getToken());
+        boolean isNew = session.getToken() == null;
+        
+        if (!isNew) {
+            this.sessions.remove(session.getToken(), session);
         }
         
-        // Generate token
+        // Generate token and register session
         String token = null;
         
         do {
             token = session.generateToken();
-        } while (this.getSessions().containsKey(token));
+        } while (this.sessions.putIfAbsent(token, session) != null);
         
-        // Register session
-        this.sessions.put(session.getToken(), session);
+        // Only new sessions need to be added to the expiry queue
+        if (isNew) {
+            this.scheduleExpiry(session);
+        }
+    }
+    
+    public void removeSession(GameSession session) {
+        if (session.getToken() != null) {
+            this.sessions.remove(session.getToken(), session);
+        }
+    }
+    
+    private long getSessionTimeout() {
+        return TimeUnit.SECONDS.toMillis(Nebula.getConfig().getServerOptions().sessionTimeout);
+    }
+    
+    private void scheduleExpiry(GameSession session) {
+        this.sessionExpiryQueue.offer(new SessionExpiry(session.getLastActiveTime() + this.getSessionTimeout(), session));
     }
     
-    // TODO add timeout to config
-    public synchronized void cleanupInactiveSessions() {
-        var it = this.getSessions().entrySet().iterator();
+    /**
+     * Removes sessions that have not sent a request within the session timeout. Only sessions whose expiry time 
+     * has passed are checked, sessions that were active since then are put back into the queue with a new expiry time.
+     */
+    public void cleanupInactiveSessions() {
+        var expired = new ArrayList<GameSession>();
         
-        int time = Nebula.getConfig().getServerOptions().sessionTimeout;
-        long timeout = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(time);
+        long time = System.currentTimeMillis();
+        long timeout = this.getSessionTimeout();
         
-        while (it.hasNext()) {
-            var session = it.next().getValue();
+        while (true) {
+            // Stop when the earliest expiry time hasnt been reached yet
+            var expiry = this.sessionExpiryQueue.peek();
+            
+            if (expiry == null || expiry.deadline() > time) {
+                break;
+            }
+            
+            expiry = this.sessionExpiryQueue.poll();
+            
+            // Skip if the session was already removed
+            var session = expiry.session();
+            
+            if (session.getToken() == null || this.sessions.get(session.getToken()) != session) {
+                continue;
+            }
             
-            if (timeout > session.getLastActiveTime() || session.isRemove()) {
-                // Remove from session map
-                it.remove();
-                
-                // Clear player
-                session.clearPlayer();
+            // Session was active since it was queued, check again later
+            long deadline = session.getLastActiveTime() + timeout;
+            
+            if (deadline > time && !session.isRemove()) {
+                this.sessionExpiryQueue.offer(new SessionExpiry(deadline, session));
+                continue;
             }
+            
+            // Remove from session map
+            this.sessions.remove(session.getToken(), session);
+            expired.add(session);
+        }
+        
+        // Clear players after removing them, since this writes their data to the database
+        for (var session : expired) {
+            session.clearPlayer();
         }
     }
 
@@ -113,12 +170,15 @@ public class GameContext implements Runnable {
         
         // Clean up any inactive sessions
         this.cleanupInactiveSessions();
+        
+        // Remove players that have been disconnected for too long
+        this.getPlayerModule().evictIdlePlayers();
     }
 
     /**
      * Resets the daily missions/etc for all players on the server
      */
-    public synchronized void resetDailies() {
+    public void resetDailies() {
         for (var session : this.getSessions().values()) {
             // Cache
             var player = session.getPlayer();
@@ -128,8 +188,14 @@ public class GameContext implements Runnable {
                 continue;
             }
             
-            //
-            player.checkResetDailies();
+            // Reset on the player's executor
+            player.getExecutor().execute(player::checkResetDailies);
         }
     }
+    
+    // Session expiry
+    
+    private static record SessionExpiry(long deadline, GameSession session) {
+        
+    }
 }
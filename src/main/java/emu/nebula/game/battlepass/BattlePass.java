@@ -101,7 +101,7 @@ public class BattlePass implements GameDatabaseObject {
         }
     }
     
-    public synchronized void resetDailyQuests(boolean resetWeekly) {
+    public void resetDailyQuests(boolean resetWeekly) {
         // Reset daily quests
         for (var data : GameData.getBattlePassQuestDataTable()) {
             // Get quest
@@ -123,7 +123,7 @@ public class BattlePass implements GameDatabaseObject {
         this.save();
     }
     
-    public synchronized void trigger(QuestCondType condition, int progress, int param) {
+    public void trigger(QuestCondType condition, int progress, int param) {
         for (var quest : getQuests().values()) {
             // Try to trigger quest
             boolean result = quest.trigger(condition, progress, param);
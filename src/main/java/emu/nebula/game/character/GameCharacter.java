@@ -20,6 +20,7 @@ import emu.nebula.data.resources.TalentGroupDef;
 import emu.nebula.database.GameDatabaseObject;
 import emu.nebula.game.inventory.ItemParamMap;
 import emu.nebula.game.player.Player;
+import emu.nebula.game.player.PlayerInfoCache.Section;
 import emu.nebula.game.player.PlayerChangeInfo;
 import emu.nebula.game.quest.QuestCondType;
 import emu.nebula.net.NetMsgId;
@@ -79,6 +80,7 @@ public class GameCharacter implements GameDatabaseObject {
     }
     
     public GameCharacter(Player player, CharacterDef data) {
+        this.uid = new ObjectId();
         this.player = player;
         this.playerUid = player.getUid();
         this.charId = data.getId();
@@ -652,7 +654,7 @@ public class GameCharacter implements GameDatabaseObject {
         return true;
     }
 
-    public synchronized PlayerChangeInfo generateGem(int slotId) {
+    public PlayerChangeInfo generateGem(int slotId) {
         // Get gem slot
         var slot = this.getGemSlot(slotId);
         if (slot == null) {
@@ -699,7 +701,7 @@ public class GameCharacter implements GameDatabaseObject {
     }
     
     @SuppressWarnings("deprecation")
-    public synchronized PlayerChangeInfo refreshGem(int slotId, int gemIndex, RepeatedInt lockedAttributes) {
+    public PlayerChangeInfo refreshGem(int slotId, int gemIndex, RepeatedInt lockedAttributes) {
         // Get gem from slot
         var gem = this.getGemFromSlot(slotId, gemIndex);
         if (gem == null) return null;
@@ -871,6 +873,18 @@ public class GameCharacter implements GameDatabaseObject {
         return proto;
     }
     
+    // Database
+    
+    @Override
+    public void save() {
+        // Encoded player info is out of date
+        if (this.getPlayer() != null) {
+            this.getPlayer().getInfoCache().invalidate(Section.CHARS);
+        }
+        
+        Nebula.getGameDatabase().queueSave(this);
+    }
+    
     // Database fix
     
     @PreLoad
@@ -13,6 +13,7 @@ import emu.nebula.data.resources.SubNoteSkillPromoteGroupDef;
 import emu.nebula.database.GameDatabaseObject;
 import emu.nebula.game.inventory.ItemParamMap;
 import emu.nebula.game.player.Player;
+import emu.nebula.game.player.PlayerInfoCache.Section;
 import emu.nebula.game.player.PlayerChangeInfo;
 import emu.nebula.game.quest.QuestCondType;
 import emu.nebula.proto.Public.Disc;
@@ -52,6 +53,7 @@ public class GameDisc implements GameDatabaseObject {
     }
     
     public GameDisc(Player player, DiscDef data) {
+        this.uid = new ObjectId();
         this.player = player;
         this.playerUid = player.getUid();
         this.data = data;
@@ -289,6 +291,18 @@ public class GameDisc implements GameDatabaseObject {
         return change;
     }
     
+    // Database
+    
+    @Override
+    public void save() {
+        // Encoded player info is out of date
+        if (this.getPlayer() != null) {
+            this.getPlayer().getInfoCache().invalidate(Section.DISCS);
+        }
+        
+        Nebula.getGameDatabase().queueSave(this);
+    }
+    
     // Proto
     
     public Disc toProto() {
@@ -14,6 +14,8 @@ import emu.nebula.proto.Public.FriendDetail;
 import emu.nebula.proto.Public.FriendState;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import lombok.Getter;
 import us.hebi.quickbuf.RepeatedLong;
 
@@ -39,7 +41,7 @@ public class FriendList extends PlayerManager {
         return this.getPlayer().isLoaded();
     }
     
-    private synchronized Friendship getFriendById(int id) {
+    private Friendship getFriendById(int id) {
         if (this.isLoaded()) {
             return this.getFriends().get(id);
         } else {
@@ -47,7 +49,7 @@ public class FriendList extends PlayerManager {
         }
     }
 
-    private synchronized Friendship getPendingFriendById(int id) {
+    private Friendship getPendingFriendById(int id) {
         if (this.isLoaded()) {
             return this.getPendingFriends().get(id);
         } else {
@@ -55,7 +57,7 @@ public class FriendList extends PlayerManager {
         }
     }
     
-    public synchronized boolean hasPendingRequests() {
+    public boolean hasPendingRequests() {
         return this.getPendingFriends().values()
                 .stream()
                 .filter(f -> f.getAskerUid() != this.getPlayerUid())
@@ -90,7 +92,7 @@ public class FriendList extends PlayerManager {
         return this.getPendingFriends().size() + this.getFriends().size();
     }
     
-    public synchronized Player handleFriendRequest(int targetUid, boolean action) {
+    public Player handleFriendRequest(int targetUid, boolean action) {
         // Make sure we have enough room
         if (this.getFriends().size() >= GameConstants.MAX_FRIENDSHIPS) {
             return null;
@@ -111,48 +113,121 @@ public class FriendList extends PlayerManager {
         Player target = getGameContext().getPlayerModule().getPlayer(targetUid);
         if (target == null) return null;
         
-        // Get target player's friendship
-        Friendship theirFriendship = target.getFriendList().getPendingFriendById(getPlayer().getUid());
-        
-        if (theirFriendship == null) {
-            // They dont have us on their friends list anymore, rip
-            this.removePendingFriendship(target.getUid());
-            myFriendship.delete();
-            return null;
+        if (target.isLoaded()) {
+            // Target is online, their friend list can only be changed from their executor. Our side is finished right away
+            // instead of waiting for theirs, and undone if they dont have a pending friendship with us anymore
+            this.finishFriendRequest(myFriendship, true, action);
+            
+            target.getExecutor().submit(() -> {
+                return target.getFriendList().onFriendRequestHandled(this.getPlayerUid(), action);
+            }).whenComplete((handled, error) -> {
+                if (error != null) {
+                    Nebula.getLogger().error("Error handling friend request: ", error);
+                }
+                
+                if (action && !Boolean.TRUE.equals(handled)) {
+                    this.getPlayer().getExecutor().execute(() -> this.undoFriendRequest(myFriendship));
+                }
+            });
+            
+            return target;
+        } else {
+            // Get target player's friendship from the database
+            Friendship theirFriendship = target.getFriendList().getPendingFriendById(getPlayer().getUid());
+            
+            if (theirFriendship == null) {
+                // They dont have us on their friends list anymore, rip
+                this.finishFriendRequest(myFriendship, false, action);
+                return null;
+            }
+            
+            if (action) {
+                theirFriendship.setFriend(true);
+                theirFriendship.save();
+            } else {
+                theirFriendship.delete();
+            }
         }
         
         // Handle action
-        if (action) {
+        this.finishFriendRequest(myFriendship, true, action);
+        
+        // Success
+        return target;
+    }
+    
+    /**
+     * Accepts or declines our side of a friend request, after the other player's side has been handled
+     * @param handled False if the other player does not have a pending friendship with us anymore
+     */
+    private void finishFriendRequest(Friendship myFriendship, boolean handled, boolean action) {
+        // Skip if our side was changed in the meantime
+        if (this.getPendingFriends().get(myFriendship.getFriendUid()) != myFriendship) {
+            return;
+        }
+        
+        this.removePendingFriendship(myFriendship.getFriendUid());
+        
+        if (handled && action) {
             // Request accepted
             myFriendship.setFriend(true);
-            theirFriendship.setFriend(true);
-
-            this.removePendingFriendship(myFriendship.getFriendUid());
             this.addFriendship(myFriendship);
 
-            if (target.isLoaded()) {
-                target.getFriendList().removePendingFriendship(this.getPlayer().getUid());
-                target.getFriendList().addFriendship(theirFriendship);
-            }
-
-            // Save friendships to the database
+            // Save friendship to the database
             myFriendship.save();
-            theirFriendship.save();
         } else {
-            // Request declined - Delete from my pending friends
-            this.removePendingFriendship(myFriendship.getPlayerUid());
-
-            if (target.isLoaded()) {
-                target.getFriendList().removePendingFriendship(getPlayer().getUid());
+            // Request declined or no longer exists - Delete friendship from the database
+            myFriendship.delete();
+        }
+    }
+    
+    /**
+     * Removes a friendship that we accepted, after the other player's side turned out to be gone
+     */
+    private void undoFriendRequest(Friendship myFriendship) {
+        // Skip if our side was changed in the meantime
+        if (this.getFriends().get(myFriendship.getFriendUid()) != myFriendship) {
+            return;
+        }
+        
+        this.removeFriendship(myFriendship.getFriendUid());
+        myFriendship.delete();
+    }
+    
+    /**
+     * Called on this player's executor when another player accepts or declines our friend request.
+     * Returns false if we dont have a pending friendship with that player anymore.
+     */
+    private boolean onFriendRequestHandled(int uid, boolean accepted) {
+        var friendship = this.getPendingFriends().get(uid);
+        
+        if (friendship == null) {
+            // Both players handled the request at the same time, so our side is already finished
+            var friend = this.getFriends().get(uid);
+            if (friend == null) {
+                return false;
             }
             
-            // Delete friendships from the database
-            myFriendship.delete();
-            theirFriendship.delete();
+            // They declined while we accepted
+            if (!accepted) {
+                this.removeFriendship(uid);
+                friend.delete();
+            }
+            
+            return true;
         }
         
-        // Success
-        return target;
+        this.removePendingFriendship(uid);
+        
+        if (accepted) {
+            friendship.setFriend(true);
+            this.addFriendship(friendship);
+            friendship.save();
+        } else {
+            friendship.delete();
+        }
+        
+        return true;
     }
 
     public List<Player> acceptAll() {
@@ -175,7 +250,7 @@ public class FriendList extends PlayerManager {
         return results;
     }
 
-    public synchronized boolean sendFriendRequest(int targetUid) {
+    public boolean sendFriendRequest(int targetUid) {
         // Get target and sanity check
         Player target = getGameContext().getPlayerModule().getPlayer(targetUid);
         if (target == null || target == this.getPlayer()) {
@@ -193,28 +268,31 @@ public class FriendList extends PlayerManager {
         
         // Add to our pending friendship list
         this.addPendingFriendship(myFriendship);
-
-        if (target.isLoaded()) {
-            target.getFriendList().addPendingFriendship(theirFriendship);
-            
-            // Send message to notify target
-            target.addNextPackage(
-                NetMsgId.friend_state_notify, 
-                FriendState.newInstance()
-                    .setId(this.getPlayerUid())
-                    .setAction(1)
-            );
-        }
         
         // Save friendships to the database
         myFriendship.save();
         theirFriendship.save();
+
+        if (target.isLoaded()) {
+            // Add to target's pending friendship list on their executor
+            target.getExecutor().execute(() -> {
+                target.getFriendList().addPendingFriendship(theirFriendship);
+                
+                // Send message to notify target
+                target.addNextPackage(
+                    NetMsgId.friend_state_notify, 
+                    FriendState.newInstance()
+                        .setId(this.getPlayerUid())
+                        .setAction(1)
+                );
+            });
+        }
         
         // Success
         return true;
     }
     
-    public synchronized boolean deleteFriend(int targetUid) {
+    public boolean deleteFriend(int targetUid) {
         // Get friendship
         Friendship myFriendship = this.getFriendById(targetUid);
         if (myFriendship == null) return false;
@@ -227,16 +305,17 @@ public class FriendList extends PlayerManager {
         Player friend = getGameContext().getPlayerModule().getPlayer(targetUid);
         
         if (friend != null) {
-            // Friend online
-            Friendship theirFriendship = friend.getFriendList().getFriendById(this.getPlayer().getUid());
-            
-            if (theirFriendship != null) {
+            if (friend.isLoaded()) {
+                // Friend online, remove from their friend list on their executor
+                friend.getExecutor().execute(() -> {
+                    friend.getFriendList().onFriendDeleted(this.getPlayerUid());
+                });
+            } else {
                 // Delete friendship on friends side
-                theirFriendship.delete();
+                Friendship theirFriendship = friend.getFriendList().getFriendById(this.getPlayer().getUid());
                 
-                if (friend.isLoaded()) {
-                    // Remove from online friend's friend list
-                    friend.getFriendList().removeFriendship(theirFriendship.getFriendUid());
+                if (theirFriendship != null) {
+                    theirFriendship.delete();
                 }
             }
         }
@@ -245,7 +324,46 @@ public class FriendList extends PlayerManager {
         return true;
     }
 
-    public synchronized void setStar(RepeatedLong list, boolean star) {
+    /**
+     * Called on this player's executor when another player removes us from their friend list
+     */
+    private void onFriendDeleted(int uid) {
+        var friendship = this.getFriends().get(uid);
+        if (friendship == null) {
+            return;
+        }
+        
+        this.removeFriendship(uid);
+        friendship.delete();
+    }
+
+    /**
+     * Called on this player's executor after these players were deleted. Removes them from our friend list, the
+     * friendships are deleted again so that any save that was queued for them does not bring them back.
+     */
+    public void onPlayersPurged(IntSet uids) {
+        var purged = new ArrayList<Friendship>();
+        
+        for (var friendship : this.getFriends().values()) {
+            if (uids.contains(friendship.getFriendUid())) {
+                purged.add(friendship);
+            }
+        }
+        
+        for (var friendship : this.getPendingFriends().values()) {
+            if (uids.contains(friendship.getFriendUid())) {
+                purged.add(friendship);
+            }
+        }
+        
+        for (var friendship : purged) {
+            this.removeFriendship(friendship.getFriendUid());
+            this.removePendingFriendship(friendship.getFriendUid());
+            friendship.delete();
+        }
+    }
+
+    public void setStar(RepeatedLong list, boolean star) {
         for (long id : list) {
             // Get friendship
             var friendship = this.getFriendById((int) id);
@@ -265,7 +383,7 @@ public class FriendList extends PlayerManager {
     
     // Database
     
-    public synchronized void loadFromDatabase() {
+    public void loadFromDatabase() {
         var friendships = Nebula.getGameDatabase().getObjects(Friendship.class, "playerUid", this.getPlayer().getUid());
         
         friendships.forEach(friendship -> {
@@ -283,7 +401,7 @@ public class FriendList extends PlayerManager {
     
     // Proto 
     
-    public synchronized FriendListGetResp toProto() {
+    public FriendListGetResp toProto() {
         if (this.cachedProto == null || System.currentTimeMillis() > this.cacheCooldown) {
             this.cachedProto = this.updateCache();
             this.cacheCooldown = System.currentTimeMillis() + 60_000;
@@ -295,11 +413,19 @@ public class FriendList extends PlayerManager {
     private FriendListGetResp updateCache() {
         var proto = FriendListGetResp.newInstance();
         
+        // Get profiles of all friends and invites at once
+        var uids = new IntOpenHashSet(getFriends().keySet());
+        uids.addAll(getPendingFriends().keySet());
+        
+        var profiles = getGameContext().getPlayerModule().getProfileCache().getProfiles(uids);
+        
         // Encode friends list
         for (var friend : getFriends().values()) {
             // Get base friend info
-            var base = friend.toProto();
-            if (base == null) continue;
+            var profile = profiles.get(friend.getFriendUid());
+            if (profile == null) continue;
+            
+            var base = profile.toProto();
             
             // Create info
             var info = FriendDetail.newInstance()
@@ -319,11 +445,11 @@ public class FriendList extends PlayerManager {
             }
             
             // Get base friend info
-            var base = friend.toProto();
-            if (base == null) continue;
+            var profile = profiles.get(friend.getFriendUid());
+            if (profile == null) continue;
             
             // Add
-            proto.addInvites(base);
+            proto.addInvites(profile.toProto());
         }
         
         return proto;
@@ -0,0 +1,291 @@
+package emu.nebula.game.friends;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntPredicate;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.Projections;
+import com.mongodb.client.model.Sorts;
+
+import emu.nebula.Nebula;
+import emu.nebula.game.GameContext;
+import emu.nebula.game.GameContextModule;
+import emu.nebula.game.player.Player;
+import emu.nebula.game.player.PlayerProfile;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+
+/**
+ * Index of recently active players used for friend recommendations. Players are bucketed by world class, each
+ * bucket keeps the most recently active players of that level. The index is updated when players log in or out.
+ */
+public class FriendRecommendationModule extends GameContextModule {
+    private static final int BUCKET_SIZE = 200;
+    private static final int RECOMMENDATION_COUNT = 10;
+    
+    private final Int2ObjectOpenHashMap<Bucket> buckets;
+    private final Int2IntOpenHashMap levels; // Player uid -> Bucket level
+    private int minLevel;
+    private int maxLevel;
+    
+    public FriendRecommendationModule(GameContext context) {
+        super(context);
+        this.buckets = new Int2ObjectOpenHashMap<>();
+        this.levels = new Int2IntOpenHashMap();
+        this.levels.defaultReturnValue(-1);
+        this.minLevel = Integer.MAX_VALUE;
+        this.maxLevel = Integer.MIN_VALUE;
+        
+        // Fill the index before any players log in, so that the database is not queried while the index is locked
+        this.seed();
+    }
+    
+    // Index
+    
+    /**
+     * Marks this player as recently active. Called on login and logout, so that level changes are picked up.
+     */
+    public synchronized void onActive(Player player) {
+        this.add(player.getUid(), player.getLevel());
+    }
+    
+    public synchronized void remove(int uid) {
+        int level = this.levels.remove(uid);
+        
+        if (level >= 0) {
+            this.buckets.get(level).remove(uid);
+        }
+    }
+    
+    private void add(int uid, int level) {
+        // Remove from previous bucket, the player is moved to the newest position
+        this.remove(uid);
+        
+        // Add to bucket
+        var bucket = this.buckets.computeIfAbsent(level, l -> new Bucket());
+        int evicted = bucket.add(uid);
+        
+        if (evicted != 0) {
+            this.levels.remove(evicted);
+        }
+        
+        this.levels.put(uid, level);
+        this.minLevel = Math.min(this.minLevel, level);
+        this.maxLevel = Math.max(this.maxLevel, level);
+    }
+    
+    /**
+     * Fills the index with the most recently logged in players from the database. Only called from the constructor.
+     */
+    private void seed() {
+        if (Nebula.getGameDatabase() == null) {
+            return;
+        }
+        
+        var collection = Nebula.getGameDatabase().getDatastore().getCollection(Player.class).withDocumentClass(Document.class);
+        var documents = collection.find()
+                .sort(Sorts.descending("lastLogin"))
+                .limit(BUCKET_SIZE * 20)
+                .projection(Projections.include("level"));
+        
+        // Add oldest players first, so that the newest ones are kept if a bucket is full
+        var list = new ArrayList<Document>();
+        
+        try {
+            documents.into(list);
+        } catch (Exception e) {
+            Nebula.getLogger().error("Unable to load friend recommendations: ", e);
+        }
+        
+        for (int i = list.size() - 1; i >= 0; i--) {
+            var document = list.get(i);
+            
+            if (document.get("_id") instanceof Number uid && document.get("level") instanceof Number level) {
+                this.add(uid.intValue(), level.intValue());
+            }
+        }
+    }
+    
+    // Recommendations
+    
+    /**
+     * Returns a random list of recently active players close to the world class of this player. Skips the player
+     * and any players that are already on their friend list.
+     */
+    public List<PlayerProfile> getRecommendations(Player player) {
+        var friendList = player.getFriendList();
+        var uids = this.sample(player.getLevel(), RECOMMENDATION_COUNT, uid -> {
+            return uid == player.getUid() || friendList.getFriends().containsKey(uid) || friendList.getPendingFriends().containsKey(uid);
+        });
+        
+        // Get profiles
+        var profiles = Nebula.getGameContext().getPlayerModule().getProfileCache().getProfiles(uids);
+        var results = new ArrayList<PlayerProfile>(uids.size());
+        
+        for (int uid : uids) {
+            var profile = profiles.get(uid);
+            
+            if (profile != null) {
+                results.add(profile);
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Samples up to this many player uids, starting from the bucket of this level and moving outwards
+     */
+    private synchronized IntArrayList sample(int level, int count, IntPredicate exclude) {
+        var results = new IntArrayList(count);
+        var picked = new IntOpenHashSet(count);
+        
+        for (int distance = 0; results.size() < count; distance++) {
+            int lower = level - distance;
+            int upper = level + distance;
+            
+            if (lower < this.minLevel && upper > this.maxLevel) {
+                break;
+            }
+            
+            this.sampleBucket(lower, count, exclude, results, picked);
+            
+            if (distance > 0) {
+                this.sampleBucket(upper, count, exclude, results, picked);
+            }
+        }
+        
+        return results;
+    }
+    
+    private void sampleBucket(int level, int count, IntPredicate exclude, IntArrayList results, IntOpenHashSet picked) {
+        var bucket = this.buckets.get(level);
+        if (bucket == null || bucket.isEmpty()) {
+            return;
+        }
+        
+        var random = ThreadLocalRandom.current();
+        
+        // Random picks, with a limited amount of tries so that small buckets full of friends do not loop forever
+        for (int tries = bucket.size() * 2; tries > 0 && results.size() < count; tries--) {
+            int uid = bucket.get(random.nextInt(bucket.size()));
+            
+            if (uid == 0 || exclude.test(uid) || !picked.add(uid)) {
+                continue;
+            }
+            
+            results.add(uid);
+        }
+    }
+    
+    /**
+     * Ring buffer of player uids with constant time add, remove and random access. When full, the oldest player is evicted.
+     * Removed players leave an empty slot (0) behind so that the order of the other players is kept, empty slots are
+     * dropped once they reach the oldest position or compacted when they make up most of the bucket.
+     */
+    private static class Bucket {
+        private final int[] uids;
+        private final Int2IntOpenHashMap positions;
+        private int head;
+        private int size; // Used slots, including empty ones
+        
+        public Bucket() {
+            this.uids = new int[BUCKET_SIZE];
+            this.positions = new Int2IntOpenHashMap();
+            this.positions.defaultReturnValue(-1);
+        }
+        
+        public int size() {
+            return this.size;
+        }
+        
+        public boolean isEmpty() {
+            return this.positions.isEmpty();
+        }
+        
+        /**
+         * Returns the uid at this index, or 0 if the slot is empty
+         */
+        public int get(int index) {
+            return this.uids[(this.head + index) % this.uids.length];
+        }
+        
+        /**
+         * Adds this uid as the newest entry. Returns the uid that was evicted, or 0 if no player was evicted.
+         */
+        public int add(int uid) {
+            int evicted = 0;
+            
+            if (this.size == this.uids.length) {
+                evicted = this.uids[this.head];
+                this.uids[this.head] = 0;
+                this.positions.remove(evicted);
+                this.head = (this.head + 1) % this.uids.length;
+                this.size--;
+                this.trim();
+            }
+            
+            int slot = (this.head + this.size) % this.uids.length;
+            this.uids[slot] = uid;
+            this.positions.put(uid, slot);
+            this.size++;
+            
+            return evicted;
+        }
+        
+        /**
+         * Removes this uid, leaving an empty slot behind
+         */
+        public void remove(int uid) {
+            int slot = this.positions.remove(uid);
+            if (slot < 0) {
+                return;
+            }
+            
+            this.uids[slot] = 0;
+            this.trim();
+            
+            // Compact if most slots are empty, so that random picks do not keep hitting them
+            if (this.positions.size() * 2 < this.size) {
+                this.compact();
+            }
+        }
+        
+        /**
+         * Drops empty slots at the oldest position
+         */
+        private void trim() {
+            while (this.size > 0 && this.uids[this.head] == 0) {
+                this.head = (this.head + 1) % this.uids.length;
+                this.size--;
+            }
+        }
+        
+        /**
+         * Moves all players to the start of the buffer, oldest first
+         */
+        private void compact() {
+            var compacted = new int[this.uids.length];
+            int count = 0;
+            
+            for (int i = 0; i < this.size; i++) {
+                int uid = this.get(i);
+                
+                if (uid != 0) {
+                    compacted[count] = uid;
+                    this.positions.put(uid, count);
+                    count++;
+                }
+            }
+            
+            System.arraycopy(compacted, 0, this.uids, 0, compacted.length);
+            this.head = 0;
+            this.size = count;
+        }
+    }
+}
@@ -39,18 +39,18 @@ public class Friendship implements GameDatabaseObject {
     // Database functions
 
     public void delete() {
-        Nebula.getGameDatabase().delete(this);
+        Nebula.getGameDatabase().queueDelete(this);
     }
     
     // Proto
     
     public Friend toProto() {
-        // Get target player
-        var target = Nebula.getGameContext().getPlayerModule().getPlayer(this.getFriendUid());
-        if (target == null) return null;
+        // Get target player profile
+        var profile = Nebula.getGameContext().getPlayerModule().getProfileCache().getProfile(this.getFriendUid());
+        if (profile == null) return null;
         
         // Encode player to simple friend proto
-        return target.getFriendProto();
+        return profile.toProto();
     }
     
     // Extra
@@ -1,12 +1,14 @@
 package emu.nebula.game.gacha;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
+
 import dev.morphia.annotations.Entity;
 
 import emu.nebula.data.resources.GachaDef;
 import emu.nebula.data.resources.GachaDef.GachaPackage;
 import emu.nebula.data.resources.GachaPkgDef;
 import emu.nebula.proto.GachaInformation.GachaInfo;
-import emu.nebula.util.Utils;
 
 import lombok.Getter;
 
@@ -35,6 +37,13 @@ public class GachaBannerInfo {
     }
     
     public int doPull(GachaDef data) {
+        return this.doPull(data, ThreadLocalRandom.current());
+    }
+    
+    /**
+     * Pulls once using this random generator, a seeded generator always gives the same results
+     */
+    public int doPull(GachaDef data, RandomGenerator rng) {
         // Pull chances
         int chanceA = 20;   // 2%
         int chanceB = 100;  // 8%
@@ -56,7 +65,7 @@ public class GachaBannerInfo {
         //this.missTimesUpA++;
         
         // Get random
-        int random = Utils.randomRange(1, 1000);
+        int random = rng.nextInt(1, 1001);
         GachaPackage gp = null;
         
         if (random <= chanceA) {
@@ -64,16 +73,16 @@ public class GachaBannerInfo {
             this.missTimesA = 0;
             
             // Get A package
-            gp = data.getPackageA().next();
+            gp = data.getPackageA().next(rng);
         } else if (random <= chanceB) {
             // Add miss times
             this.missTimesB = 0;
             
             // Get B package
-            gp = data.getPackageB().next();
+            gp = data.getPackageB().next(rng);
         } else {
             // Get C package
-            gp = data.getPackageC().next();
+            gp = data.getPackageC().next(rng);
         }
         
         // Sanity check
@@ -91,7 +100,7 @@ public class GachaBannerInfo {
         this.total++;
         
         // Get random id
-        return pkg.next();
+        return pkg.next(rng);
     }
     
     // Proto
@@ -43,11 +43,11 @@ public class GachaManager extends PlayerManager implements GameDatabaseObject {
         this.save();
     }
     
-    public synchronized Collection<GachaBannerInfo> getBannerInfos() {
+    public Collection<GachaBannerInfo> getBannerInfos() {
         return this.banners.values();
     }
     
-    public synchronized GachaBannerInfo getBannerInfo(GachaDef gachaData) {
+    public GachaBannerInfo getBannerInfo(GachaDef gachaData) {
         return this.banners.computeIfAbsent(
             gachaData.getId(), 
             i -> new GachaBannerInfo(gachaData)
@@ -98,7 +98,10 @@ public class GachaManager extends PlayerManager implements GameDatabaseObject {
     
     // Histories
     
-    public void addGachaHistory(GachaHistoryLog log) {
+    /**
+     * Adds a history log for a pull and saves the banner info with it in a single database update
+     */
+    public void addGachaHistory(GachaBannerInfo info, GachaHistoryLog log) {
         // Get history
         var list = this.histories.computeIfAbsent(
             log.getType(), 
@@ -117,22 +120,17 @@ public class GachaManager extends PlayerManager implements GameDatabaseObject {
         }
         
         // Update to database
+        var update = Nebula.getGameDatabase().update(this, this.getPlayerUid())
+                .set("banners." + info.getId(), info);
+        
         if (resize) {
             // Replace history logs
-            Nebula.getGameDatabase().update(
-                this,
-                this.getPlayerUid(),
-                "histories." + log.getType(),
-                list
-            );
+            update.set("histories." + log.getType(), list);
         } else {
             // Add to history list
-            Nebula.getGameDatabase().addToSet(
-                this,
-                this.getPlayerUid(),
-                "histories." + log.getType(),
-                log
-            );
+            update.addToSet("histories." + log.getType(), log);
         }
+        
+        update.execute();
     }
 }
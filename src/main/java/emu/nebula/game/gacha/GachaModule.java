@@ -157,12 +157,9 @@ public class GachaModule extends GameContextModule {
         transformItemsDst.toItemTemplateStream().forEach(transform::addDst);
         change.add(transform);
         
-        // Save banner info to database
-        player.getGachaManager().saveBanner(info);
-        
-        // Add history
+        // Add history and save banner info to database
         var log = new GachaHistoryLog(data.getGachaType(), results);
-        player.getGachaManager().addGachaHistory(log);
+        player.getGachaManager().addGachaHistory(info, log);
         
         // Complete
         return new GachaResult(info, change, results);
@@ -0,0 +1,246 @@
+package emu.nebula.game.gacha;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import emu.nebula.data.GameData;
+import emu.nebula.data.resources.GachaDef;
+import emu.nebula.data.resources.GachaPkgDef;
+import emu.nebula.util.JsonUtils;
+import it.unimi.dsi.fastutil.ints.Int2LongOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import lombok.Getter;
+
+/**
+ * Simulates pulls on a banner with the same logic that players use, to check the real rates and pity of a banner.
+ * Pulls are split into runs that each start with a fresh banner info, runs are simulated in parallel. Results only
+ * depend on the seed and not on the amount of threads.
+ */
+public class GachaSimulator {
+    // Pulls per run, a run is one simulated player that keeps pulling on the banner
+    private static final int PULLS_PER_RUN = 100_000;
+    
+    // Max pulls per simulation, the amount of runs has to fit in an int
+    public static final long MAX_PULLS = 10_000_000_000L;
+    
+    // Histogram sizes, pity is always hit before these
+    private static final int MAX_PITY_A = 160;
+    private static final int MAX_PITY_B = 10;
+    
+    // Leave one core free for the server
+    private static final ForkJoinPool POOL = new ForkJoinPool(Math.max(Runtime.getRuntime().availableProcessors() - 1, 1));
+    
+    private final GachaDef data;
+    private final IntSet featuredIds;
+    
+    public GachaSimulator(GachaDef data) {
+        this.data = data;
+        this.featuredIds = new IntOpenHashSet();
+        
+        // Get featured ids from the A up package
+        var featured = GachaPkgDef.getPackageById(data.getATypeUpPkg());
+        
+        if (featured != null) {
+            for (int i = 0; i < featured.size(); i++) {
+                this.featuredIds.add(featured.get(i).intValue());
+            }
+        }
+    }
+    
+    public static GachaSimulator create(int bannerId) {
+        var data = GameData.getGachaDataTable().get(bannerId);
+        if (data == null || data.getStorageData() == null) {
+            return null;
+        }
+        
+        return new GachaSimulator(data);
+    }
+    
+    /**
+     * Runs the simulation on the simulator pool and blocks until it is done
+     */
+    public GachaSimulationResult run(long pulls, long seed) {
+        return this.runAsync(pulls, seed).join();
+    }
+    
+    /**
+     * Starts the simulation on the simulator pool, so that it does not compete with the common pool used by the server
+     */
+    public CompletableFuture<GachaSimulationResult> runAsync(long pulls, long seed) {
+        if (pulls <= 0 || pulls > MAX_PULLS) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Invalid amount of pulls: " + pulls));
+        }
+        
+        return CompletableFuture.supplyAsync(() -> this.simulate(pulls, seed), POOL);
+    }
+    
+    private GachaSimulationResult simulate(long pulls, long seed) {
+        long start = System.nanoTime();
+        
+        // Split random generators before running, so that each run always gets the same stream
+        int runs = (int) Math.max((pulls + PULLS_PER_RUN - 1) / PULLS_PER_RUN, 1);
+        var random = new SplittableRandom(seed);
+        var generators = new SplittableRandom[runs];
+        
+        for (int i = 0; i < runs; i++) {
+            generators[i] = random.split();
+        }
+        
+        // Simulate, parallel streams use the pool of the task that started them
+        var result = IntStream.range(0, runs)
+                .parallel()
+                .mapToObj(i -> {
+                    long count = Math.min(PULLS_PER_RUN, pulls - (long) i * PULLS_PER_RUN);
+                    return this.simulate(generators[i], count);
+                })
+                .reduce(GachaSimulationResult::merge)
+                .orElseGet(GachaSimulationResult::new);
+        
+        // Set info
+        result.bannerId = this.data.getId();
+        result.seed = seed;
+        result.threads = POOL.getParallelism();
+        result.timeMs = (System.nanoTime() - start) / 1_000_000;
+        result.complete(this.data.getStorageData().getDefaultQty());
+        
+        return result;
+    }
+    
+    /**
+     * Writes the result as json to the working directory, returns the file that was written
+     */
+    public static File writeResult(GachaSimulationResult result) throws IOException {
+        var file = new File("gacha_sim_" + result.getBannerId() + ".json");
+        Files.writeString(file.toPath(), JsonUtils.encode(result));
+        return file;
+    }
+    
+    private GachaSimulationResult simulate(SplittableRandom random, long count) {
+        var result = new GachaSimulationResult();
+        var info = new GachaBannerInfo(this.data);
+        
+        for (long i = 0; i < count; i++) {
+            int pityA = info.getMissTimesA() + 1;
+            int pityB = info.getMissTimesB() + 1;
+            
+            int id = info.doPull(this.data, random);
+            result.pulls++;
+            
+            if (id <= 0) {
+                result.failed++;
+                continue;
+            }
+            
+            result.itemCounts.addTo(id, 1);
+            
+            // Check which package the pull was from
+            if (info.getMissTimesA() == 0) {
+                result.a++;
+                result.pityA[Math.min(pityA, MAX_PITY_A)]++;
+                
+                if (this.featuredIds.contains(id)) {
+                    result.featured++;
+                }
+            } else if (info.getMissTimesB() == 0) {
+                result.b++;
+                result.pityB[Math.min(pityB, MAX_PITY_B)]++;
+            } else {
+                result.c++;
+            }
+        }
+        
+        return result;
+    }
+    
+    @Getter
+    public static class GachaSimulationResult {
+        private int bannerId;
+        private long seed;
+        private int threads;
+        private long timeMs;
+        private double pullsPerSecond;
+        
+        // Counts
+        private long pulls;
+        private long failed;
+        private long a;
+        private long featured;
+        private long b;
+        private long c;
+        
+        // Observed rates
+        private double rateA;
+        private double rateFeatured;
+        private double rateB;
+        private double rateC;
+        
+        // Expected cost
+        private double pullsPerA;
+        private double pullsPerFeatured;
+        private double ticketsPerFeatured;
+        
+        // Amount of pulls it took to get each A/B, index is the pull count
+        private long[] pityA = new long[MAX_PITY_A + 1];
+        private long[] pityB = new long[MAX_PITY_B + 1];
+        
+        // Amount of each pulled item id
+        private Map<Integer, Long> items;
+        private transient Int2LongOpenHashMap itemCounts = new Int2LongOpenHashMap();
+        
+        public String getSummary() {
+            return String.format("Banner %d: %d pulls in %d ms (%.0f pulls/s). A %.3f%% (featured %.3f%%), B %.3f%%, C %.3f%%. %.1f pulls (%.1f tickets) per featured A",
+                    this.bannerId, this.pulls, this.timeMs, this.pullsPerSecond,
+                    this.rateA * 100, this.rateFeatured * 100, this.rateB * 100, this.rateC * 100,
+                    this.pullsPerFeatured, this.ticketsPerFeatured);
+        }
+        
+        private GachaSimulationResult merge(GachaSimulationResult other) {
+            this.pulls += other.pulls;
+            this.failed += other.failed;
+            this.a += other.a;
+            this.featured += other.featured;
+            this.b += other.b;
+            this.c += other.c;
+            
+            for (int i = 0; i < this.pityA.length; i++) {
+                this.pityA[i] += other.pityA[i];
+            }
+            
+            for (int i = 0; i < this.pityB.length; i++) {
+                this.pityB[i] += other.pityB[i];
+            }
+            
+            for (var entry : other.itemCounts.int2LongEntrySet()) {
+                this.itemCounts.addTo(entry.getIntKey(), entry.getLongValue());
+            }
+            
+            return this;
+        }
+        
+        private void complete(int ticketsPerPull) {
+            double pulls = Math.max(this.pulls, 1);
+            
+            this.rateA = this.a / pulls;
+            this.rateFeatured = this.featured / pulls;
+            this.rateB = this.b / pulls;
+            this.rateC = this.c / pulls;
+            
+            this.pullsPerA = this.a > 0 ? pulls / this.a : 0;
+            this.pullsPerFeatured = this.featured > 0 ? pulls / this.featured : 0;
+            this.ticketsPerFeatured = this.pullsPerFeatured * ticketsPerPull;
+            
+            this.pullsPerSecond = this.timeMs > 0 ? this.pulls * 1000.0 / this.timeMs : this.pulls;
+            
+            // Sorted by item id
+            this.items = new TreeMap<>(this.itemCounts);
+        }
+    }
+}
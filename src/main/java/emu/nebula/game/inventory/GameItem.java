@@ -29,6 +29,7 @@ public class GameItem implements GameDatabaseObject {
     }
     
     public GameItem(Player player, int id, int count) {
+        this.uid = new ObjectId();
         this.playerUid = player.getUid();
         this.itemId = id;
         this.count = count;
@@ -46,10 +47,10 @@ public class GameItem implements GameDatabaseObject {
     public void save() {
         if (this.getCount() <= 0) {
             if (this.getUid() != null) {
-                Nebula.getGameDatabase().delete(this);
+                Nebula.getGameDatabase().queueDelete(this);
             }
         } else {
-            Nebula.getGameDatabase().save(this);
+            Nebula.getGameDatabase().queueSave(this);
         }
     }
     
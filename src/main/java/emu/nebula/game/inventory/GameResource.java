@@ -29,6 +29,7 @@ public class GameResource implements GameDatabaseObject {
     }
     
     public GameResource(Player player, int id, int count) {
+        this.uid = new ObjectId();
         this.playerUid = player.getUid();
         this.resourceId = id;
         this.count = count;
@@ -44,10 +45,10 @@ public class GameResource implements GameDatabaseObject {
     public void save() {
         if (this.getCount() <= 0) {
             if (this.getUid() != null) {
-                Nebula.getGameDatabase().delete(this);
+                Nebula.getGameDatabase().queueDelete(this);
             }
         } else {
-            Nebula.getGameDatabase().save(this);
+            Nebula.getGameDatabase().queueSave(this);
         }
     }
     
@@ -15,13 +15,12 @@ import emu.nebula.game.quest.QuestCondType;
 import emu.nebula.net.NetMsgId;
 import emu.nebula.proto.Notify.Skin;
 import emu.nebula.proto.Public.Honor;
-import emu.nebula.proto.Public.Item;
-import emu.nebula.proto.Public.Res;
 import emu.nebula.proto.Public.Title;
 import emu.nebula.proto.Public.UI32;
 import emu.nebula.util.String2IntMap;
 import emu.nebula.game.player.Player;
 import emu.nebula.game.player.PlayerChangeInfo;
+import emu.nebula.game.player.PlayerInfoCache.Section;
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntCollection;
@@ -259,14 +258,14 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
     
     // Resources
     
-    public synchronized int getResourceCount(int id) {
+    public int getResourceCount(int id) {
         var res = this.resources.get(id);
         return res != null ? res.getCount() : 0;
     }
     
     // Items
     
-    public synchronized int getItemCount(int id) {
+    public int getItemCount(int id) {
         var item = this.getItems().get(id);
         return item != null ? item.getCount() : 0;
     }
@@ -277,7 +276,7 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
         return this.addItem(id, count, null);
     }
     
-    public synchronized PlayerChangeInfo addItem(int id, int count, PlayerChangeInfo change) {
+    public PlayerChangeInfo addItem(int id, int count, PlayerChangeInfo change) {
         // Changes
         if (change == null) {
             change = new PlayerChangeInfo();
@@ -330,11 +329,9 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
                 }
                 
                 if (diff != 0) {
-                    var proto = Res.newInstance()
-                            .setTid(id)
-                            .setQty(diff);
+                    this.getPlayer().getInfoCache().invalidate(Section.RESOURCES);
                     
-                    change.add(proto);
+                    change.addRes(id, diff);
                 }
             }
             case Item -> {
@@ -368,11 +365,9 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
                 }
                 
                 if (diff != 0) {
-                    var proto = Item.newInstance()
-                            .setTid(id)
-                            .setQty(diff);
+                    this.getPlayer().getInfoCache().invalidate(Section.ITEMS);
                     
-                    change.add(proto);
+                    change.addItem(id, diff);
                 }
             }
             case Disc -> {
@@ -474,7 +469,7 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
     }
 
     @Deprecated
-    public synchronized PlayerChangeInfo addItems(List<ItemParam> params, PlayerChangeInfo change) {
+    public PlayerChangeInfo addItems(List<ItemParam> params, PlayerChangeInfo change) {
         // Changes
         if (change == null) {
             change = new PlayerChangeInfo();
@@ -487,11 +482,11 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
         return change;
     }
     
-    public synchronized PlayerChangeInfo addItems(ItemParamMap params) {
+    public PlayerChangeInfo addItems(ItemParamMap params) {
         return this.addItems(params, null);
     }
     
-    public synchronized PlayerChangeInfo addItems(ItemParamMap params, PlayerChangeInfo change) {
+    public PlayerChangeInfo addItems(ItemParamMap params, PlayerChangeInfo change) {
         // Changes
         if (change == null) {
             change = new PlayerChangeInfo();
@@ -514,7 +509,7 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
         return this.removeItem(id, count, null);
     }
     
-    public synchronized PlayerChangeInfo removeItem(int id, int count, PlayerChangeInfo change) {
+    public PlayerChangeInfo removeItem(int id, int count, PlayerChangeInfo change) {
         if (count > 0) {
             count = -count;
         }
@@ -522,11 +517,11 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
         return this.addItem(id, count, change);
     }
     
-    public synchronized PlayerChangeInfo removeItems(ItemParamMap params) {
+    public PlayerChangeInfo removeItems(ItemParamMap params) {
         return this.removeItems(params, null);
     }
     
-    public synchronized PlayerChangeInfo removeItems(ItemParamMap params, PlayerChangeInfo change) {
+    public PlayerChangeInfo removeItems(ItemParamMap params, PlayerChangeInfo change) {
         // Changes
         if (change == null) {
             change = new PlayerChangeInfo();
@@ -548,7 +543,7 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
     /**
      * Checks if the player has enough quanity of this item
      */
-    public synchronized boolean hasItem(int id, int count) {
+    public boolean hasItem(int id, int count) {
         // Sanity check
         if (count == 0) {
             return true;
@@ -592,7 +587,7 @@ public class Inventory extends PlayerManager implements GameDatabaseObject {
         return result;
     }
     
-    public synchronized boolean hasItems(ItemParamMap params) {
+    public boolean hasItems(ItemParamMap params) {
         boolean hasItems = true;
         
         for (var param : params.entries()) {
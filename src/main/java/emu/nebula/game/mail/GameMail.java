@@ -3,15 +3,24 @@ package emu.nebula.game.mail;
 import java.util.concurrent.TimeUnit;
 
 import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Field;
+import dev.morphia.annotations.Id;
+import dev.morphia.annotations.Index;
+import dev.morphia.annotations.Indexes;
 import emu.nebula.Nebula;
+import emu.nebula.database.GameDatabaseObject;
 import emu.nebula.game.inventory.ItemParamMap;
 import emu.nebula.proto.Public.Mail;
 import lombok.Getter;
 import lombok.Setter;
 
 @Getter
-@Entity(useDiscriminator = false)
-public class GameMail {
+@Entity(value = "mails", useDiscriminator = false)
+@Indexes(@Index(fields = {@Field("playerUid"), @Field("id")}))
+public class GameMail implements GameDatabaseObject {
+    @Id private long key;
+    
+    private int playerUid;
     private int id;
     
     private String author;
@@ -41,11 +50,37 @@ public class GameMail {
         this.expiry = this.time + TimeUnit.DAYS.toSeconds(30);
     }
     
+    protected GameMail(GlobalMail mail) {
+        this.author = mail.getAuthor();
+        this.subject = mail.getSubject();
+        this.desc = mail.getDesc();
+        this.time = mail.getTime();
+        this.expiry = mail.getExpiry();
+        
+        if (mail.getAttachments() != null) {
+            this.attachments = new ItemParamMap();
+            this.attachments.putAll(mail.getAttachments());
+        }
+    }
+    
     protected void setId(int id) {
         if (this.id == 0) {
             this.id = id;
         }
     }
+    
+    protected void setOwner(int playerUid) {
+        this.playerUid = playerUid;
+        this.key = GameMail.generateUniqueKey(playerUid, this.getId());
+    }
+    
+    public boolean isNew() {
+        return !this.isRead() && !this.isRecv();
+    }
+    
+    public boolean isClaimable() {
+        return this.hasAttachments() && !this.isRecv();
+    }
 
     public boolean canRemove() {
         return (this.isRead() || (this.hasAttachments() && this.isRecv())) && !this.isPin();
@@ -63,6 +98,14 @@ public class GameMail {
         this.attachments.add(itemId, count);
     }
     
+    // Database functions
+    
+    public void delete() {
+        Nebula.getGameDatabase().queueDelete(this);
+    }
+    
+    // Proto
+    
     public Mail toProto() {
         var proto = Mail.newInstance()
                 .setId(this.getId())
@@ -83,4 +126,13 @@ public class GameMail {
         
         return proto;
     }
+    
+    // Extra
+    
+    /**
+     * Creates an unique key for a mail object using the owner uid and mail id
+     */
+    public static long generateUniqueKey(int playerUid, int id) {
+        return ((long) playerUid << 32) + id;
+    }
 }
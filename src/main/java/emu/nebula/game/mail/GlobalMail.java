@@ -0,0 +1,104 @@
+package emu.nebula.game.mail;
+
+import java.util.concurrent.TimeUnit;
+
+import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Id;
+import emu.nebula.Nebula;
+import emu.nebula.database.GameDatabaseObject;
+import emu.nebula.game.inventory.ItemParamMap;
+import emu.nebula.game.player.Player;
+import lombok.Getter;
+import lombok.Setter;
+
+/**
+ * Mail that is sent to every player that matches its filters. Only one record is stored, each mailbox copies it
+ * when the player logs in or opens their mail list.
+ */
+@Getter
+@Entity(value = "global_mail", useDiscriminator = false)
+public class GlobalMail implements GameDatabaseObject {
+    @Id private int id;
+    
+    private String author;
+    private String subject;
+    private String desc;
+    
+    private ItemParamMap attachments;
+    
+    private long time;
+    private long expiry;
+    
+    // Audience filters
+    @Setter private int minLevel;
+    @Setter private long maxCreateTime; // Only players created before this time get the mail, 0 for all players
+    
+    @Deprecated // Morphia only
+    public GlobalMail() {
+        
+    }
+    
+    public GlobalMail(String author, String subject, String desc) {
+        this.author = author;
+        this.subject = subject;
+        this.desc = desc;
+        this.time = Nebula.getCurrentTime();
+        this.expiry = this.time + TimeUnit.DAYS.toSeconds(30);
+        this.maxCreateTime = this.time;
+    }
+    
+    protected void setId(int id) {
+        if (this.id == 0) {
+            this.id = id;
+        }
+    }
+    
+    public boolean hasExpired() {
+        return Nebula.getCurrentTime() > this.getExpiry();
+    }
+    
+    public void addAttachment(int itemId, int count) {
+        if (this.attachments == null) {
+            this.attachments = new ItemParamMap();
+        }
+        
+        this.attachments.add(itemId, count);
+    }
+    
+    /**
+     * Returns true if this player should receive this mail
+     */
+    public boolean canReceive(Player player) {
+        if (this.hasExpired()) {
+            return false;
+        }
+        
+        if (player.getLevel() < this.getMinLevel()) {
+            return false;
+        }
+        
+        if (this.getMaxCreateTime() > 0 && player.getCreateTime() > this.getMaxCreateTime()) {
+            return false;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Returns true if this player cant receive this mail yet, but will once they reach the required level
+     */
+    public boolean canReceiveLater(Player player) {
+        if (this.hasExpired() || player.getLevel() >= this.getMinLevel()) {
+            return false;
+        }
+        
+        return this.getMaxCreateTime() <= 0 || player.getCreateTime() <= this.getMaxCreateTime();
+    }
+    
+    /**
+     * Creates the mailbox copy of this mail
+     */
+    public GameMail toGameMail() {
+        return new GameMail(this);
+    }
+}
@@ -0,0 +1,114 @@
+package emu.nebula.game.mail;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import emu.nebula.Nebula;
+import emu.nebula.game.GameContext;
+import emu.nebula.game.GameContextModule;
+import emu.nebula.game.player.Player;
+
+/**
+ * Keeps the global mails that have not expired yet, sorted by id
+ */
+public class GlobalMailModule extends GameContextModule {
+    private final List<GlobalMail> mails;
+    private boolean loaded;
+    
+    public GlobalMailModule(GameContext context) {
+        super(context);
+        this.mails = new ArrayList<>();
+    }
+    
+    private void load() {
+        if (this.loaded) {
+            return;
+        }
+        
+        this.loaded = true;
+        
+        Nebula.getGameDatabase().getObjects(GlobalMail.class)
+                .filter(mail -> !mail.hasExpired())
+                .sorted((a, b) -> Integer.compare(a.getId(), b.getId()))
+                .forEach(this.mails::add);
+    }
+    
+    /**
+     * Stores the mail and delivers it to all online players. Offline players receive it the next time they log in.
+     */
+    public void send(GlobalMail mail) {
+        // Get id and add to the list in one step. Otherwise a player could see a mail with a higher id first and skip this one
+        synchronized (this) {
+            this.load();
+            
+            mail.setId(Nebula.getGameDatabase().getNextObjectId(GlobalMail.class));
+            this.mails.add(mail);
+        }
+        
+        // Save to database
+        mail.save();
+        
+        // Deliver to online players
+        var playerModule = this.getGameContext().getPlayerModule();
+        List<Player> players = null;
+        
+        synchronized (playerModule) {
+            players = new ArrayList<>(playerModule.getCachedPlayers().values());
+        }
+        
+        for (var player : players) {
+            if (!player.isLoaded()) {
+                continue;
+            }
+            
+            player.getExecutor().execute(() -> {
+                player.getMailbox().checkGlobalMail();
+            });
+        }
+    }
+    
+    /**
+     * Returns the mail with this id, or null if it doesnt exist or has expired
+     */
+    public synchronized GlobalMail getMailById(int id) {
+        this.load();
+        
+        // Mails are sorted by id
+        int low = 0;
+        int high = this.mails.size() - 1;
+        
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            var mail = this.mails.get(mid);
+            
+            if (mail.getId() < id) {
+                low = mid + 1;
+            } else if (mail.getId() > id) {
+                high = mid - 1;
+            } else {
+                return mail.hasExpired() ? null : mail;
+            }
+        }
+        
+        return null;
+    }
+    
+    /**
+     * Returns all mails with an id higher than this one
+     */
+    public synchronized List<GlobalMail> getMailsAfter(int id) {
+        this.load();
+        
+        // Remove expired mails
+        this.mails.removeIf(GlobalMail::hasExpired);
+        
+        // Mails are sorted by id, so search from the end
+        int index = this.mails.size();
+        
+        while (index > 0 && this.mails.get(index - 1).getId() > id) {
+            index--;
+        }
+        
+        return index < this.mails.size() ? List.copyOf(this.mails.subList(index, this.mails.size())) : List.of();
+    }
+}
@@ -3,18 +3,21 @@ package emu.nebula.game.mail;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
-import java.util.stream.Collectors;
 
 import dev.morphia.annotations.Entity;
 import dev.morphia.annotations.Id;
+import emu.nebula.GameConstants;
 import emu.nebula.Nebula;
 import emu.nebula.database.GameDatabaseObject;
 import emu.nebula.game.player.Player;
 import emu.nebula.game.player.PlayerChangeInfo;
 import emu.nebula.game.player.PlayerManager;
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap;
 import it.unimi.dsi.fastutil.ints.IntArrayList;
 import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
+import lombok.AccessLevel;
 import lombok.Getter;
 
 @Getter
@@ -23,21 +26,32 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
     @Id
     private int uid;
     private int lastMailId;
+    private int lastGlobalMailId;
+    private IntSet gatedGlobalMailIds; // Global mails that were skipped because the player was not a high enough level yet
     
+    // Mails used to be embedded in the mailbox, they are moved to their own collection when loaded
+    @Getter(AccessLevel.NONE)
     private List<GameMail> list;
     
+    // Mails sorted by id
+    @Getter(AccessLevel.NONE)
+    private transient Int2ObjectLinkedOpenHashMap<GameMail> mails;
+    
+    private transient int newCount;
+    
     private transient boolean newState;
     
     @Deprecated // Morphia only
     public Mailbox() {
-        
+        this.mails = new Int2ObjectLinkedOpenHashMap<>();
     }
     
     public Mailbox(Player player) {
         super(player);
         
         this.uid = player.getUid();
-        this.list = new ArrayList<>();
+        this.mails = new Int2ObjectLinkedOpenHashMap<>();
+        this.gatedGlobalMailIds = new IntOpenHashSet();
         
         this.save();
     }
@@ -46,28 +60,45 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         this.newState = false;
     }
     
-    // TODO optimize to an O(n) algorithm like a map
+    public int size() {
+        return this.mails.size();
+    }
+    
     public GameMail getMailById(int id) {
-        return this.getList().stream()
-                .filter(m -> m.getId() == id)
-                .findFirst()
-                .orElse(null);
+        return this.mails.get(id);
     }
     
     public boolean hasNewMail() {
-        return this.getList()
-                .stream()
-                .filter(mail -> !mail.isRead() && !mail.isRecv())
-                .findAny()
-                .isPresent();
+        return this.newCount > 0;
+    }
+    
+    // Index
+    
+    private void indexMail(GameMail mail) {
+        this.mails.put(mail.getId(), mail);
+        
+        if (mail.isNew()) {
+            this.newCount++;
+        }
+    }
+    
+    private void unindexMail(GameMail mail) {
+        this.mails.remove(mail.getId());
+        
+        if (mail.isNew()) {
+            this.newCount--;
+        }
     }
     
+    // Mail functions
+    
     public void sendMail(GameMail mail) {
         // Set mail id
         mail.setId(++this.lastMailId);
+        mail.setOwner(this.getUid());
         
         // Add to mail list
-        this.list.add(mail);
+        this.indexMail(mail);
         
         // Set new state only if player has a session connected
         if (this.getPlayer().hasSession()) {
@@ -76,7 +107,7 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         
         // Save to database
         Nebula.getGameDatabase().update(this, getUid(), "lastMailId", this.getLastMailId());
-        Nebula.getGameDatabase().addToSet(this, getUid(), "list", mail);
+        mail.save();
     }
     
     public boolean readMail(int id, long flag) {
@@ -88,10 +119,14 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         }
         
         // Set read
+        if (mail.isNew()) {
+            this.newCount--;
+        }
+        
         mail.setRead(true);
         
         // Update in database
-        Nebula.getGameDatabase().updateNested(this, getUid(), "list.id", id, "list.$.read", true);
+        mail.save();
         
         // Success
         return true;
@@ -109,7 +144,7 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         mail.setPin(pin);
         
         // Update in database
-        Nebula.getGameDatabase().updateNested(this, getUid(), "list.id", id, "list.$.pin", true);
+        mail.save();
         
         // Success
         return mail;
@@ -120,16 +155,16 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         List<GameMail> mails = null;
         
         if (id == 0) {
-            // Claim all
-            mails = this.getList()
+            // Claim all mails that are shown in the mail list
+            mails = this.getVisibleMails()
                     .stream()
-                    .filter(mail -> !mail.isRecv() && mail.hasAttachments())
+                    .filter(mail -> mail.isClaimable())
                     .toList();
         } else {
             // Claim one
             var mail = this.getMailById(id);
             
-            if (mail != null && !mail.isRecv() && mail.hasAttachments()) {
+            if (mail != null && mail.isClaimable()) {
                 mails = List.of(mail);
             }
         }
@@ -151,13 +186,17 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
             player.getInventory().addItems(mail.getAttachments(), changes);
             
             // Set claimed flag
+            if (mail.isNew()) {
+                this.newCount--;
+            }
+            
             mail.setRecv(true);
             
             // Add to recvied mail list
             recvMails.add(mail.getId());
             
             // Update in database
-            Nebula.getGameDatabase().updateNested(this, getUid(), "list.id", mail.getId(), "list.$.recv", true);
+            mail.save();
         }
         
         // Set extra change data
@@ -168,25 +207,25 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
     }
     
     public IntList removeMail(Player player, int id) {
-        // Get mails that we want to claim
-        Set<GameMail> toRemove = null;
+        // Get mails that we want to remove
+        List<GameMail> toRemove = null;
         
         if (id == 0) {
-            // Claim all
-            toRemove = this.getList()
+            // Remove all mails that are shown in the mail list
+            toRemove = this.getVisibleMails()
                     .stream()
                     .filter(mail -> mail.canRemove())
-                    .collect(Collectors.toSet());
+                    .toList();
         } else {
-            // Claim one
+            // Remove one
             var mail = this.getMailById(id);
             
             if (mail != null && mail.canRemove()) {
-                toRemove = Set.of(mail);
+                toRemove = List.of(mail);
             }
         }
         
-        // Recieved mail id list
+        // Removed mail id list
         var removed = new IntArrayList();
         
         // Sanity check
@@ -195,21 +234,95 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         }
         
         // Remove
-        var it = this.getList().iterator();
-        while (it.hasNext()) {
-            var mail = it.next();
+        for (var mail : toRemove) {
+            this.unindexMail(mail);
+            removed.add(mail.getId());
             
-            if (toRemove.contains(mail)) {
-                removed.add(mail.getId());
+            // Delete from database
+            mail.delete();
+        }
+        
+        // Success
+        return removed;
+    }
+    
+    /**
+     * Copies any global mails that were sent since the last check to this mailbox. Mails that need a higher level are
+     * remembered and checked again until the player can receive them or they expire.
+     */
+    public void checkGlobalMail() {
+        var module = Nebula.getGameContext().getGlobalMailModule();
+        boolean gatedChanged = false;
+        
+        // Check mails that the player could not receive before
+        if (!this.gatedGlobalMailIds.isEmpty()) {
+            var it = this.gatedGlobalMailIds.iterator();
+            
+            while (it.hasNext()) {
+                var globalMail = module.getMailById(it.nextInt());
+                
+                if (globalMail != null && globalMail.canReceiveLater(this.getPlayer())) {
+                    continue;
+                }
+                
+                if (globalMail != null && globalMail.canReceive(this.getPlayer())) {
+                    this.sendMail(globalMail.toGameMail());
+                }
+                
                 it.remove();
+                gatedChanged = true;
             }
         }
         
-        // Save
-        this.save();
+        // Check new mails
+        var globalMails = module.getMailsAfter(this.getLastGlobalMailId());
         
-        // Success
-        return removed;
+        for (var globalMail : globalMails) {
+            if (globalMail.canReceive(this.getPlayer())) {
+                this.sendMail(globalMail.toGameMail());
+            } else if (globalMail.canReceiveLater(this.getPlayer())) {
+                this.gatedGlobalMailIds.add(globalMail.getId());
+                gatedChanged = true;
+            }
+            
+            this.lastGlobalMailId = Math.max(this.lastGlobalMailId, globalMail.getId());
+        }
+        
+        // Update in database
+        if (!globalMails.isEmpty()) {
+            Nebula.getGameDatabase().update(this, getUid(), "lastGlobalMailId", this.getLastGlobalMailId());
+        }
+        
+        if (gatedChanged) {
+            Nebula.getGameDatabase().update(this, getUid(), "gatedGlobalMailIds", this.getGatedGlobalMailIds());
+        }
+    }
+    
+    /**
+     * Returns up to this many mails, starting from the newest one
+     */
+    public List<GameMail> getNewestMails(int limit) {
+        var results = new ArrayList<GameMail>(Math.min(limit, this.size()));
+        
+        if (this.mails.isEmpty()) {
+            return results;
+        }
+        
+        // Iterate backwards from the last mail id
+        var it = this.mails.keySet().iterator(this.mails.lastIntKey());
+        
+        while (it.hasPrevious() && results.size() < limit) {
+            results.add(this.mails.get(it.previousInt()));
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Returns the mails that are shown in the mail list. Older mails are shown once newer ones are removed.
+     */
+    public List<GameMail> getVisibleMails() {
+        return this.getNewestMails(GameConstants.MAX_MAIL_LIST_SIZE);
     }
     
     public void sendWelcomeMail() {
@@ -224,9 +337,44 @@ public class Mailbox extends PlayerManager implements GameDatabaseObject, Iterab
         
         this.sendMail(mail);
     }
-
+    
+    // Database
+    
+    public void loadFromDatabase() {
+        // Mailboxes from before gated global mails were tracked
+        if (this.gatedGlobalMailIds == null) {
+            this.gatedGlobalMailIds = new IntOpenHashSet();
+        }
+        
+        // Load mails
+        var mails = new ArrayList<GameMail>();
+        
+        // Move embedded mails to the mail collection. These are added to the list directly, since the queued writes may not be in the database yet
+        if (this.list != null) {
+            for (var mail : this.list) {
+                mail.setOwner(this.getUid());
+                mail.save();
+                mails.add(mail);
+            }
+            
+            this.list = null;
+            this.save();
+        }
+        
+        Nebula.getGameDatabase().getObjects(GameMail.class, "playerUid", this.getUid()).forEach(mails::add);
+        
+        // Index mails sorted by id, mails that were just moved come first so they are picked over older copies
+        mails.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        
+        for (var mail : mails) {
+            if (!this.mails.containsKey(mail.getId())) {
+                this.indexMail(mail);
+            }
+        }
+    }
+    
     @Override
     public Iterator<GameMail> iterator() {
-        return this.getList().iterator();
+        return this.mails.values().iterator();
     }
 }
@@ -1,6 +1,10 @@
 package emu.nebula.game.player;
 
-import java.util.Stack;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import dev.morphia.annotations.AlsoLoad;
 import dev.morphia.annotations.Entity;
@@ -32,18 +36,16 @@ import emu.nebula.game.vampire.VampireSurvivorManager;
 import emu.nebula.net.GameSession;
 import emu.nebula.net.NetMsgId;
 import emu.nebula.net.NetMsgPacket;
-import emu.nebula.proto.PlayerData.DictionaryEntry;
-import emu.nebula.proto.PlayerData.DictionaryTab;
 import emu.nebula.proto.PlayerData.PlayerInfo;
 import emu.nebula.proto.Public.CharShow;
 import emu.nebula.proto.Public.Energy;
 import emu.nebula.proto.Public.Friend;
 import emu.nebula.proto.Public.HonorInfo;
-import emu.nebula.proto.Public.NewbieInfo;
 import emu.nebula.proto.Public.QuestType;
 import emu.nebula.proto.Public.Story;
 import emu.nebula.proto.Public.WorldClass;
 import emu.nebula.proto.Public.WorldClassRewardState;
+import emu.nebula.util.SerialExecutor;
 import emu.nebula.util.Utils;
 import emu.nebula.proto.Public.Title;
 
@@ -54,6 +56,9 @@ import us.hebi.quickbuf.RepeatedInt;
 @Getter
 @Entity(value = "players", useDiscriminator = false)
 public class Player implements GameDatabaseObject {
+    // Runs the database queries of players that are being loaded
+    private static final ExecutorService LOAD_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    
     @Id private int uid;
     @Indexed private String accountUid;
     
@@ -107,8 +112,11 @@ public class Player implements GameDatabaseObject {
     private transient AgentManager agentManager;
     
     // Extra
-    private transient Stack<NetMsgPacket> nextPackages;
+    private final transient SerialExecutor executor;
+    private final transient PlayerInfoCache infoCache;
+    private transient Deque<NetMsgPacket> nextPackages;
     private transient boolean loaded;
+    private transient volatile PlayerProfile profile;
     
     @Deprecated // Morphia only
     public Player() {
@@ -123,8 +131,14 @@ public class Player implements GameDatabaseObject {
         this.vampireSurvivorManager = new VampireSurvivorManager(this);
         this.scoreBossManager = new ScoreBossManager(this);
         
+        // Requests and tasks for this player run on this executor one at a time
+        this.executor = new SerialExecutor();
+        
+        // Pre-encoded player info sections
+        this.infoCache = new PlayerInfoCache(this);
+        
         // Init next packages stack
-        this.nextPackages = new Stack<>();
+        this.nextPackages = new ArrayDeque<>();
     }
     
     public Player(Account account, String name, boolean gender) {
@@ -196,7 +210,8 @@ public class Player implements GameDatabaseObject {
     
     public void removeSession() {
         this.session = null;
-        Nebula.getGameContext().getPlayerModule().removeFromCache(this);
+        Nebula.getGameContext().getPlayerModule().onPlayerDisconnect(this);
+        Nebula.getGameContext().getFriendRecommendationModule().onActive(this);
     }
     
     public boolean hasSession() {
@@ -206,6 +221,7 @@ public class Player implements GameDatabaseObject {
     public void setLevel(int level) {
         this.level = level;
         Nebula.getGameDatabase().update(this, this.getUid(), "level", this.level);
+        this.updateProfile();
     }
     
     public void setExp(int exp) {
@@ -232,6 +248,31 @@ public class Player implements GameDatabaseObject {
         Nebula.getGameDatabase().update(this, this.getUid(), "remoteToken", this.remoteToken);
     }
     
+    /**
+     * Returns the profile that other players see. Cached until one of the profile fields changes.
+     */
+    public PlayerProfile getProfile() {
+        var profile = this.profile;
+        
+        if (profile == null) {
+            profile = new PlayerProfile(this);
+            this.profile = profile;
+        }
+        
+        return profile;
+    }
+    
+    /**
+     * Rebuilds the profile after one of its fields changed and writes it through to the profile cache
+     */
+    private void updateProfile() {
+        this.profile = new PlayerProfile(this);
+        
+        if (Nebula.getGameContext() != null) {
+            Nebula.getGameContext().getPlayerModule().getProfileCache().update(this);
+        }
+    }
+    
     public boolean getGender() {
         return this.gender;
     }
@@ -252,6 +293,7 @@ public class Player implements GameDatabaseObject {
         
         // Update in database
         Nebula.getGameDatabase().update(this, this.getUid(), "name", this.getName());
+        this.updateProfile();
         
         // Success
         return true;
@@ -283,7 +325,12 @@ public class Player implements GameDatabaseObject {
         this.titleSuffix = suffix;
         
         // Update in database
-        Nebula.getGameDatabase().update(this, this.getUid(), "titlePrefix", this.getTitlePrefix(), "titleSuffix", this.getTitleSuffix());
+        Nebula.getGameDatabase().update(this, this.getUid())
+            .set("titlePrefix", this.getTitlePrefix())
+            .set("titleSuffix", this.getTitleSuffix())
+            .execute();
+        
+        this.updateProfile();
         
         return true;
     }
@@ -304,6 +351,7 @@ public class Player implements GameDatabaseObject {
         
         // Update in database
         Nebula.getGameDatabase().update(this, this.getUid(), "headIcon", this.getHeadIcon());
+        this.updateProfile();
         
         // Success
         return true;
@@ -325,6 +373,7 @@ public class Player implements GameDatabaseObject {
         
         // Update in database
         Nebula.getGameDatabase().update(this, this.getUid(), "signature", this.getSignature());
+        this.updateProfile();
         
         // Success
         return true;
@@ -378,6 +427,7 @@ public class Player implements GameDatabaseObject {
         
         // Update in database
         Nebula.getGameDatabase().update(this, this.getUid(), "showChars", this.getShowChars());
+        this.updateProfile();
         
         // Success
         return true;
@@ -411,6 +461,7 @@ public class Player implements GameDatabaseObject {
         
         // Update in database
         Nebula.getGameDatabase().update(this, this.getUid(), "honor", this.getHonor());
+        this.updateProfile();
         
         // Success
         return true;
@@ -480,18 +531,15 @@ public class Player implements GameDatabaseObject {
         }
         
         // Save to database
-        Nebula.getGameDatabase().update(
-                this, 
-                this.getUid(), 
-                "level", 
-                this.getLevel(), 
-                "exp", 
-                this.getExp()
-        );
+        Nebula.getGameDatabase().update(this, this.getUid())
+            .set("level", this.getLevel())
+            .set("exp", this.getExp())
+            .execute();
         
         // Save level rewards if we changed it
         if (oldLevel != this.getLevel()) {
             this.getQuestManager().saveLevelRewards();
+            this.updateProfile();
             
             this.addNextPackage(
                 NetMsgId.world_class_reward_state_notify, 
@@ -569,14 +617,10 @@ public class Player implements GameDatabaseObject {
         this.energy = Math.max(this.energy + amount, 0);
         
         // Save to database
-        Nebula.getGameDatabase().update(
-                this, 
-                this.getUid(), 
-                "energy", 
-                this.getEnergy(), 
-                "energyLastUpdate", 
-                this.getEnergyLastUpdate()
-        );
+        Nebula.getGameDatabase().update(this, this.getUid())
+            .set("energy", this.getEnergy())
+            .set("energyLastUpdate", this.getEnergyLastUpdate())
+            .execute();
         
         // Add to change
         change.add(this.getEnergyProto());
@@ -641,30 +685,38 @@ public class Player implements GameDatabaseObject {
         return manager;
     }
     
+    private CompletableFuture<Void> loadAsync(Runnable task) {
+        // Load with the same game data as the request that is loading this player
+        return CompletableFuture.runAsync(GameData.wrap(task), LOAD_EXECUTOR);
+    }
+    
     /**
      * Called when the player is loaded from the database
      */
     public void onLoad() {
-        // Load from database
-        this.getCharacters().loadFromDatabase();
-        this.getFriendList().loadFromDatabase();
-        this.getStarTowerManager().loadFromDatabase();
-        this.getBattlePassManager().loadFromDatabase();
-        
-        // Load inventory before referenced classes
-        if (this.inventory == null) {
-            this.inventory = this.loadManagerFromDatabase(Inventory.class);
-        }
-        this.getInventory().loadFromDatabase();
-        
-        // Load referenced classes from the database
-        this.formations = this.loadManagerFromDatabase(FormationManager.class);
-        this.mailbox = this.loadManagerFromDatabase(Mailbox.class);
-        this.progress = this.loadManagerFromDatabase(PlayerProgress.class);
-        this.gachaManager = this.loadManagerFromDatabase(GachaManager.class);
-        this.storyManager = this.loadManagerFromDatabase(StoryManager.class);
-        this.questManager = this.loadManagerFromDatabase(QuestManager.class);
-        this.agentManager = this.loadManagerFromDatabase(AgentManager.class);
+        // Load managers from the database, they dont depend on each other so their queries can run at the same time
+        CompletableFuture.allOf(
+            this.loadAsync(() -> this.getCharacters().loadFromDatabase()),
+            this.loadAsync(() -> this.getFriendList().loadFromDatabase()),
+            this.loadAsync(() -> this.getStarTowerManager().loadFromDatabase()),
+            this.loadAsync(() -> this.getBattlePassManager().loadFromDatabase()),
+            this.loadAsync(() -> {
+                if (this.inventory == null) {
+                    this.inventory = this.loadManagerFromDatabase(Inventory.class);
+                }
+                this.getInventory().loadFromDatabase();
+            }),
+            this.loadAsync(() -> this.formations = this.loadManagerFromDatabase(FormationManager.class)),
+            this.loadAsync(() -> {
+                this.mailbox = this.loadManagerFromDatabase(Mailbox.class);
+                this.mailbox.loadFromDatabase();
+            }),
+            this.loadAsync(() -> this.progress = this.loadManagerFromDatabase(PlayerProgress.class)),
+            this.loadAsync(() -> this.gachaManager = this.loadManagerFromDatabase(GachaManager.class)),
+            this.loadAsync(() -> this.storyManager = this.loadManagerFromDatabase(StoryManager.class)),
+            this.loadAsync(() -> this.questManager = this.loadManagerFromDatabase(QuestManager.class)),
+            this.loadAsync(() -> this.agentManager = this.loadManagerFromDatabase(AgentManager.class))
+        ).join();
         
         // Database fixes
         if (this.showChars == null) {
@@ -686,6 +738,13 @@ public class Player implements GameDatabaseObject {
         // Update last login time
         this.lastLogin = System.currentTimeMillis();
         Nebula.getGameDatabase().update(this, this.getUid(), "lastLogin", this.getLastLogin());
+        this.updateProfile();
+        
+        // Add to friend recommendations
+        Nebula.getGameContext().getFriendRecommendationModule().onActive(this);
+        
+        // Receive global mails
+        this.getMailbox().checkGlobalMail();
     }
     
     // Next packages
@@ -695,11 +754,19 @@ public class Player implements GameDatabaseObject {
     }
     
     public void addNextPackage(int msgId, ProtoMessage<?> proto) {
-        this.getNextPackages().add(new NetMsgPacket(msgId, proto));
+        this.getNextPackages().push(new NetMsgPacket(msgId, proto));
     }
     
     // Proto
 
+    /**
+     * Encodes the player info that is sent when logging in. Characters, discs, items, resources, tutorials
+     * and dictionaries are appended from the pre-encoded fields in the info cache.
+     */
+    public byte[] encodePlayerData(GameSession session) {
+        return session.encodeMsg(NetMsgId.player_data_succeed_ack, this.toProto(), this.getInfoCache().encodeFields());
+    }
+
     public PlayerInfo toProto() {
         PlayerInfo proto = PlayerInfo.newInstance()
                 .setServerTs(Nebula.getCurrentTime())
@@ -751,23 +818,6 @@ public class Player implements GameDatabaseObject {
         
         proto.getMutableEnergy().setEnergy(this.getEnergyProto());
         
-        // Add characters/discs/res/items
-        for (var character : getCharacters().getCharacterCollection()) {
-            proto.addChars(character.toProto());
-        }
-        
-        for (var disc : getCharacters().getDiscCollection()) {
-            proto.addDiscs(disc.toProto());
-        }
-        
-        for (var item : getInventory().getItems().values()) {
-            proto.addItems(item.toProto());
-        }
-        
-        for (var res : getInventory().getResources().values()) {
-            proto.addRes(res.toProto());
-        }
-        
         // Formations
         var formations = proto.getMutableFormation();
         for (var f : this.getFormations().getFormations().values()) {
@@ -797,17 +847,6 @@ public class Player implements GameDatabaseObject {
         state.getMutableScoreBoss();
         state.getMutableCharAffinityRewards();
         
-        // Force complete tutorials
-        for (var guide : GameData.getGuideGroupDataTable()) {
-            var info = NewbieInfo.newInstance()
-                    .setGroupId(guide.getId())
-                    .setStepId(-1);
-            
-            acc.addNewbies(info);
-        }
-        
-        acc.addNewbies(NewbieInfo.newInstance().setGroupId(GameConstants.INTRO_GUIDE_ID).setStepId(-1));
-        
         // Story
         var story = proto.getMutableStory();
         
@@ -834,22 +873,6 @@ public class Player implements GameDatabaseObject {
         // Quests
         this.getQuestManager().encodeProto(proto);
         
-        // Add dictionary tabs
-        for (var dictionaryData : GameData.getDictionaryTabDataTable()) {
-            var dictionaryProto = DictionaryTab.newInstance()
-                    .setTabId(dictionaryData.getId());
-            
-            for (var entry : dictionaryData.getEntries()) {
-                var entryProto = DictionaryEntry.newInstance()
-                        .setIndex(entry.getIndex())
-                        .setStatus(2); // 2 = complete
-                
-                dictionaryProto.addEntries(entryProto);
-            }
-            
-            proto.addDictionaries(dictionaryProto);
-        }
-        
         // Add progress
         this.getProgress().encodeProto(proto);
         
@@ -873,33 +896,7 @@ public class Player implements GameDatabaseObject {
     }
     
     public Friend getFriendProto() {
-        var proto = Friend.newInstance()
-                .setId(this.getUid())
-                .setWorldClass(this.getLevel())
-                .setHeadIcon(this.getHeadIcon())
-                .setNickName(this.getName())
-                .setSignature(this.getSignature())
-                .setTitlePrefix(this.getTitlePrefix())
-                .setTitleSuffix(this.getTitleSuffix())
-                .setLastLoginTime(this.getLastLogin() * 1_000_000L);
-        
-        for (int charId : this.getShowChars()) {
-            var info = CharShow.newInstance()
-                    .setCharId(charId)
-                    .setLevel(1)                    // TODO
-                    .setSkin((charId * 100) + 1);   // TODO
-            
-            proto.addCharShows(info);
-        }
-        
-        for (int honorId : this.getHonor()) {
-            var info = HonorInfo.newInstance()
-                    .setId(honorId);
-            
-            proto.addHonors(info);
-        }
-        
-        return proto;
+        return new PlayerProfile(this).toProto();
     }
     
     public Energy getEnergyProto() {
@@ -6,52 +6,193 @@ import java.util.List;
 import emu.nebula.GameConstants;
 import emu.nebula.proto.AnyOuterClass.Any;
 import emu.nebula.proto.Public.ChangeInfo;
+import emu.nebula.proto.Public.Item;
+import emu.nebula.proto.Public.Res;
+import it.unimi.dsi.fastutil.ints.Int2IntLinkedOpenHashMap;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import lombok.AccessLevel;
 import lombok.Getter;
 import us.hebi.quickbuf.ProtoMessage;
+import us.hebi.quickbuf.ProtoSink;
+import us.hebi.quickbuf.Utf8String;
 
+/**
+ * Changes to the player that are sent to the client. Item and resource changes are merged by id, and all
+ * changes are only encoded once the change info is converted to a proto.
+ */
 @Getter
 public class PlayerChangeInfo {
+    // Type urls are the same for every proto of a class
+    private static final ClassValue<Utf8String> TYPE_URLS = new ClassValue<>() {
+        @Override
+        protected Utf8String computeValue(Class<?> type) {
+            var url = Utf8String.newEmptyInstance();
+            url.copyFrom(GameConstants.PROTO_BASE_TYPE_URL + type.getSimpleName());
+            return url;
+        }
+    };
+    
     private boolean success;
-    private List<Any> list;
     private Object extraData;
     
+    // Changes
+    @Getter(AccessLevel.NONE)
+    private Int2IntLinkedOpenHashMap resources;
+    @Getter(AccessLevel.NONE)
+    private Int2IntLinkedOpenHashMap items;
+    @Getter(AccessLevel.NONE)
+    private List<ProtoMessage<?>> list;
+    
     public PlayerChangeInfo() {
-        this.list = new ArrayList<>();
+        
     }
     
     public PlayerChangeInfo setSuccess(boolean success) {
         this.success = success;
         return this;
     }
-
+    
     public boolean isEmpty() {
-        return this.list == null || this.list.isEmpty();
+        return isEmpty(this.resources) && isEmpty(this.items) && (this.list == null || this.list.isEmpty());
     }
     
     public PlayerChangeInfo setExtraData(Object extraData) {
         this.extraData = extraData;
         return this;
     }
-
+    
+    /**
+     * Adds a change in resource count, changes to the same resource are merged
+     */
+    public void addRes(int id, int diff) {
+        if (this.resources == null) {
+            this.resources = new Int2IntLinkedOpenHashMap();
+        }
+        
+        this.resources.addTo(id, diff);
+    }
+    
+    /**
+     * Adds a change in item count, changes to the same item are merged
+     */
+    public void addItem(int id, int diff) {
+        if (this.items == null) {
+            this.items = new Int2IntLinkedOpenHashMap();
+        }
+        
+        this.items.addTo(id, diff);
+    }
+    
     public void add(ProtoMessage<?> proto) {
-        var any = Any.newInstance()
-                .setTypeUrl(GameConstants.PROTO_BASE_TYPE_URL + proto.getClass().getSimpleName())
-                .setValue(proto.toByteArray());
+        // Merge item/resource changes
+        if (proto instanceof Res res) {
+            this.addRes(res.getTid(), res.getQty());
+            return;
+        } else if (proto instanceof Item item) {
+            this.addItem(item.getTid(), item.getQty());
+            return;
+        }
         
-        this.list.add(any);
+        // Encoded later
+        if (this.list == null) {
+            this.list = new ArrayList<>();
+        }
+        
+        this.list.add(proto);
     }
     
     public void add(PlayerChangeInfo otherChange) {
-        this.getList().addAll(otherChange.getList());
+        if (otherChange.resources != null) {
+            for (var entry : otherChange.resources.int2IntEntrySet()) {
+                this.addRes(entry.getIntKey(), entry.getIntValue());
+            }
+        }
+        
+        if (otherChange.items != null) {
+            for (var entry : otherChange.items.int2IntEntrySet()) {
+                this.addItem(entry.getIntKey(), entry.getIntValue());
+            }
+        }
+        
+        if (otherChange.list != null) {
+            for (var proto : otherChange.list) {
+                this.add(proto);
+            }
+        }
+    }
+    
+    private static boolean isEmpty(Int2IntMap map) {
+        if (map == null) {
+            return true;
+        }
+        
+        // Changes that cancel each other out are not sent
+        for (var entry : map.int2IntEntrySet()) {
+            if (entry.getIntValue() != 0) {
+                return false;
+            }
+        }
+        
+        return true;
     }
     
     // Proto
     
+    /**
+     * Encodes all changes. Merged resource changes come first, then merged item changes, then the other changes in
+     * the order they were added. Each change is serialized once into a shared buffer and then copied into its Any.
+     */
     public ChangeInfo toProto() {
+        var protos = new ArrayList<ProtoMessage<?>>();
+        
+        // Merged changes
+        if (this.resources != null) {
+            for (var entry : this.resources.int2IntEntrySet()) {
+                if (entry.getIntValue() != 0) {
+                    protos.add(Res.newInstance().setTid(entry.getIntKey()).setQty(entry.getIntValue()));
+                }
+            }
+        }
+        
+        if (this.items != null) {
+            for (var entry : this.items.int2IntEntrySet()) {
+                if (entry.getIntValue() != 0) {
+                    protos.add(Item.newInstance().setTid(entry.getIntKey()).setQty(entry.getIntValue()));
+                }
+            }
+        }
+        
+        // Other changes
+        if (this.list != null) {
+            protos.addAll(this.list);
+        }
+        
+        // Serialize all changes into one buffer
+        int size = 0;
+        
+        for (var change : protos) {
+            size += change.getSerializedSize();
+        }
+        
+        var buffer = new byte[size];
+        var output = ProtoSink.newInstance(buffer, 0, size);
         var proto = ChangeInfo.newInstance();
+        int offset = 0;
         
-        for (var any : this.getList()) {
-            proto.addProps(any);
+        try {
+            for (var change : protos) {
+                int length = change.getCachedSize();
+                change.writeTo(output);
+                
+                var any = Any.newInstance().setTypeUrl(TYPE_URLS.get(change.getClass()));
+                any.getMutableValue().addAll(buffer, offset, length);
+                
+                proto.addProps(any);
+                offset += length;
+            }
+        } catch (Exception e) {
+            // Should never happen, the buffer is sized for every change
+            throw new IllegalStateException(e);
         }
         
         return proto;
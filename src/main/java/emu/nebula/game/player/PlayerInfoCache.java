@@ -0,0 +1,169 @@
+package emu.nebula.game.player;
+
+import emu.nebula.GameConstants;
+import emu.nebula.data.DataGeneration;
+import emu.nebula.data.GameData;
+import emu.nebula.proto.PlayerData.DictionaryEntry;
+import emu.nebula.proto.PlayerData.DictionaryTab;
+import emu.nebula.proto.PlayerData.PlayerInfo;
+import emu.nebula.proto.Public.NewbieInfo;
+
+/**
+ * Pre-encoded fields of the player info that is sent when the player logs in. The fields are written right
+ * after the rest of the player info, so the client parses them as part of the same message.
+ */
+public class PlayerInfoCache {
+    // Fields that only depend on game data are encoded once per data generation
+    private static final DataGeneration.Local<byte[]> staticFields = new DataGeneration.Local<>(PlayerInfoCache::encodeStaticFields);
+    
+    private final Player player;
+    private final byte[][] sections;
+    private final int[] versions;
+    
+    public PlayerInfoCache(Player player) {
+        this.player = player;
+        this.sections = new byte[Section.values().length][];
+        this.versions = new int[Section.values().length];
+    }
+    
+    /**
+     * Clears the encoded section, should be called by the owner of the section whenever its data changes
+     */
+    public synchronized void invalidate(Section section) {
+        this.sections[section.ordinal()] = null;
+        this.versions[section.ordinal()]++;
+    }
+    
+    public synchronized void invalidateAll() {
+        for (var section : Section.values()) {
+            this.invalidate(section);
+        }
+    }
+    
+    /**
+     * Returns the static and player sections of the player info, sections that were changed are encoded again
+     */
+    public byte[] encodeFields() {
+        var fields = new byte[Section.values().length + 1][];
+        int size = 0;
+        
+        // Static fields
+        fields[0] = staticFields.get();
+        size += fields[0].length;
+        
+        // Player sections
+        for (var section : Section.values()) {
+            var bytes = this.getSection(section);
+            
+            fields[section.ordinal() + 1] = bytes;
+            size += bytes.length;
+        }
+        
+        // Combine
+        var data = new byte[size];
+        int offset = 0;
+        
+        for (var bytes : fields) {
+            System.arraycopy(bytes, 0, data, offset, bytes.length);
+            offset += bytes.length;
+        }
+        
+        return data;
+    }
+    
+    private byte[] getSection(Section section) {
+        byte[] bytes;
+        int version;
+        
+        synchronized (this) {
+            bytes = this.sections[section.ordinal()];
+            version = this.versions[section.ordinal()];
+        }
+        
+        if (bytes != null) {
+            return bytes;
+        }
+        
+        // Encode outside of the lock, the result is only cached if the section was not changed in the meantime
+        bytes = this.encodeSection(section);
+        
+        synchronized (this) {
+            if (this.versions[section.ordinal()] == version) {
+                this.sections[section.ordinal()] = bytes;
+            }
+        }
+        
+        return bytes;
+    }
+    
+    private byte[] encodeSection(Section section) {
+        var proto = PlayerInfo.newInstance();
+        
+        switch (section) {
+            case CHARS -> {
+                for (var character : player.getCharacters().getCharacterCollection()) {
+                    proto.addChars(character.toProto());
+                }
+            }
+            case DISCS -> {
+                for (var disc : player.getCharacters().getDiscCollection()) {
+                    proto.addDiscs(disc.toProto());
+                }
+            }
+            case ITEMS -> {
+                for (var item : player.getInventory().getItems().values()) {
+                    proto.addItems(item.toProto());
+                }
+            }
+            case RESOURCES -> {
+                for (var res : player.getInventory().getResources().values()) {
+                    proto.addRes(res.toProto());
+                }
+            }
+        }
+        
+        return proto.toByteArray();
+    }
+    
+    private static byte[] encodeStaticFields() {
+        var proto = PlayerInfo.newInstance();
+        
+        // Force complete tutorials. The client merges this account info with the one in the rest of the player info
+        var acc = proto.getMutableAcc();
+        
+        for (var guide : GameData.getGuideGroupDataTable()) {
+            var info = NewbieInfo.newInstance()
+                    .setGroupId(guide.getId())
+                    .setStepId(-1);
+            
+            acc.addNewbies(info);
+        }
+        
+        acc.addNewbies(NewbieInfo.newInstance().setGroupId(GameConstants.INTRO_GUIDE_ID).setStepId(-1));
+        
+        // Add dictionary tabs
+        for (var dictionaryData : GameData.getDictionaryTabDataTable()) {
+            var dictionaryProto = DictionaryTab.newInstance()
+                    .setTabId(dictionaryData.getId());
+            
+            for (var entry : dictionaryData.getEntries()) {
+                var entryProto = DictionaryEntry.newInstance()
+                        .setIndex(entry.getIndex())
+                        .setStatus(2); // 2 = complete
+                
+                dictionaryProto.addEntries(entryProto);
+            }
+            
+            proto.addDictionaries(dictionaryProto);
+        }
+        
+        return proto.toByteArray();
+    }
+    
+    public static enum Section {
+        CHARS,
+        DISCS,
+        ITEMS,
+        RESOURCES;
+    }
+}
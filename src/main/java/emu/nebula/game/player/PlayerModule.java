@@ -1,60 +1,160 @@
 package emu.nebula.game.player;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.bson.Document;
 
 import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
 
 import emu.nebula.Nebula;
 import emu.nebula.game.GameContext;
 import emu.nebula.game.GameContextModule;
 import emu.nebula.game.account.Account;
-import emu.nebula.game.agent.AgentManager;
-import emu.nebula.game.battlepass.BattlePass;
-import emu.nebula.game.character.GameCharacter;
-import emu.nebula.game.character.GameDisc;
-import emu.nebula.game.formation.FormationManager;
-import emu.nebula.game.friends.Friendship;
-import emu.nebula.game.gacha.GachaManager;
-import emu.nebula.game.inventory.GameItem;
-import emu.nebula.game.inventory.GameResource;
-import emu.nebula.game.inventory.Inventory;
-import emu.nebula.game.mail.Mailbox;
-import emu.nebula.game.quest.QuestManager;
-import emu.nebula.game.scoreboss.ScoreBossRankEntry;
-import emu.nebula.game.story.StoryManager;
-import emu.nebula.game.tower.StarTowerBuild;
 import emu.nebula.net.GameSession;
 
 import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
 import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntList;
+import it.unimi.dsi.fastutil.ints.IntOpenHashSet;
+import it.unimi.dsi.fastutil.ints.IntSet;
 import it.unimi.dsi.fastutil.objects.Object2ObjectMap;
 import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 
 public class PlayerModule extends GameContextModule {
+    private static final ExecutorService RELEASE_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    
     private final Int2ObjectMap<Player> cachedPlayers;
     private final Object2ObjectMap<String, Player> cachedPlayersByAccount;
+    private final PlayerProfileCache profileCache;
+    private final IntSet purging;
+    private final Map<String, CompletableFuture<Player>> loadingPlayers;
+    private final Map<Integer, CompletableFuture<Void>> releasingPlayers;
+    private final LinkedHashMap<Integer, WarmPlayer> warmPlayers; // Disconnected players, oldest first
 
     public PlayerModule(GameContext gameContext) {
         super(gameContext);
 
         this.cachedPlayers = new Int2ObjectOpenHashMap<>();
         this.cachedPlayersByAccount = new Object2ObjectOpenHashMap<>();
+        this.profileCache = new PlayerProfileCache(this, Nebula.getConfig().getServerOptions().getPlayerProfileCacheSize());
+        this.purging = new IntOpenHashSet();
+        this.loadingPlayers = new ConcurrentHashMap<>();
+        this.releasingPlayers = new ConcurrentHashMap<>();
+        this.warmPlayers = new LinkedHashMap<>();
     }
 
     public Int2ObjectMap<Player> getCachedPlayers() {
         return cachedPlayers;
     }
     
+    public PlayerProfileCache getProfileCache() {
+        return profileCache;
+    }
+    
     private void addToCache(Player player) {
         this.cachedPlayers.put(player.getUid(), player);
         this.cachedPlayersByAccount.put(player.getAccountUid(), player);
     }
     
-    public void removeFromCache(Player player) {
+    private void removeFromCache(Player player) {
         this.cachedPlayers.remove(player.getUid());
         this.cachedPlayersByAccount.remove(player.getAccountUid());
+        this.warmPlayers.remove(player.getUid());
+        
+        // Keep the latest profile of this player cached
+        this.profileCache.update(player);
+    }
+    
+    // Warm players
+    
+    /**
+     * Called when a player disconnects. The player is kept in memory for a while, so that reconnecting
+     * does not need to load the player from the database again.
+     */
+    public synchronized void onPlayerDisconnect(Player player) {
+        // Sanity check
+        if (this.cachedPlayers.get(player.getUid()) != player) {
+            return;
+        }
+        
+        // Add to the end of the warm players list
+        long expiry = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Nebula.getConfig().getServerOptions().getWarmPlayerTimeout());
+        
+        this.warmPlayers.remove(player.getUid());
+        this.warmPlayers.put(player.getUid(), new WarmPlayer(player, expiry));
+        
+        // Remove oldest players if there are too many
+        this.evictWarmPlayers(Long.MIN_VALUE);
+    }
+    
+    /**
+     * Removes disconnected players from memory once they have been idle for too long
+     */
+    public synchronized void evictIdlePlayers() {
+        this.evictWarmPlayers(System.currentTimeMillis());
+    }
+    
+    private void evictWarmPlayers(long time) {
+        int maxSize = Math.max(Nebula.getConfig().getServerOptions().getWarmPlayerCacheSize(), 0);
+        
+        var it = this.warmPlayers.values().iterator();
+        
+        while (it.hasNext()) {
+            var warm = it.next();
+            
+            // Players are sorted by expiry, so we can stop at the first one that is kept
+            if (this.warmPlayers.size() <= maxSize && warm.expiry() > time) {
+                break;
+            }
+            
+            it.remove();
+            
+            // Skip if the player reconnected
+            if (warm.player().hasSession()) {
+                continue;
+            }
+            
+            this.releasePlayer(warm.player());
+        }
+    }
+    
+    /**
+     * Removes a disconnected player from memory and writes any changes that were made to it while it was disconnected.
+     * The changes are written in the background, after the tasks that are already queued on the player's executor have
+     * finished. Must be called while holding the lock of this module, so that loading this player always sees the release.
+     */
+    private CompletableFuture<Void> releasePlayer(Player player) {
+        int uid = player.getUid();
+        
+        this.removeFromCache(player);
+        
+        // Wait for queued tasks of this player, since they may still change it
+        var release = player.getExecutor().submit(() -> uid)
+                .thenAcceptAsync(Nebula.getGameDatabase()::flush, RELEASE_EXECUTOR);
+        
+        this.releasingPlayers.put(uid, release);
+        
+        release.whenComplete((result, error) -> {
+            this.releasingPlayers.remove(uid, release);
+            
+            if (error != null) {
+                Nebula.getLogger().error("Error releasing player " + uid + ": ", error);
+            }
+        });
+        
+        return release;
     }
 
     /**
@@ -72,50 +172,173 @@ public class PlayerModule extends GameContextModule {
      * @param uid User id of the player
      * @return
      */
-    public synchronized Player getPlayer(int uid) {
+    public Player getPlayer(int uid) {
         // Get player from cache
-        Player player = this.cachedPlayers.get(uid);
-
-        if (player == null) {
-            // Retrieve player object from database if its not there
-            player = Nebula.getGameDatabase().getObjectByUid(Player.class, uid);
+        synchronized (this) {
+            Player player = this.cachedPlayers.get(uid);
+            
+            if (player != null) {
+                return player;
+            }
+            
+            if (this.purging.contains(uid)) {
+                return null;
+            }
         }
 
-        return player;
+        // Retrieve player object from database if its not there
+        return Nebula.getGameDatabase().getObjectByUid(Player.class, uid);
     }
     
     /**
      * Returns a player object with the given account. Returns null if the player doesnt exist.
+     * If another session is already loading or creating this player, waits for it instead of loading the player again.
      * @param uid User id of the player
      * @return
      */
-    public synchronized Player loadPlayer(Account account) {
-        // Get player from cache
-        Player player = this.cachedPlayersByAccount.get(account.getUid());
-
-        if (player == null) {
-            // Retrieve player object from database if its not there
-            player = Nebula.getGameDatabase().getObjectByField(Player.class, "accountUid", account.getUid());
-
-            if (player != null) {
-                // Load player
-                player.onLoad();
-
-                // Put in cache
-                this.addToCache(player);
+    public Player loadPlayer(Account account) {
+        while (true) {
+            // Get player from cache
+            synchronized (this) {
+                Player player = this.cachedPlayersByAccount.get(account.getUid());
+                
+                if (player != null) {
+                    // Player is online again
+                    this.warmPlayers.remove(player.getUid());
+                    return player;
+                }
+            }
+            
+            // Wait for the session that is already loading or creating this player
+            var future = new CompletableFuture<Player>();
+            var existing = this.loadingPlayers.putIfAbsent(account.getUid(), future);
+            
+            if (existing != null) {
+                var player = existing.join();
+                
+                // Check again if the other session did not get a player, since the player may have been created since then
+                if (player != null) {
+                    return player;
+                }
+                
+                continue;
             }
+            
+            // Load player
+            return this.completeLoading(account.getUid(), future, () -> this.loadPlayerFromDatabase(account));
         }
-
+    }
+    
+    /**
+     * Runs the loading or creation of a player for this account, and then hands the result to any sessions that are waiting for it
+     */
+    private Player completeLoading(String accountUid, CompletableFuture<Player> future, Supplier<Player> loader) {
+        Player player = null;
+        
+        try {
+            player = loader.get();
+        } catch (Throwable e) {
+            this.loadingPlayers.remove(accountUid, future);
+            future.completeExceptionally(e);
+            throw e;
+        }
+        
+        // Remove before completing, so that waiting sessions that retry do not find this future again
+        this.loadingPlayers.remove(accountUid, future);
+        future.complete(player);
+        
+        return player;
+    }
+    
+    private Player loadPlayerFromDatabase(Account account) {
+        // Make sure any queued writes for this player are in the database before we load it
+        int uid = this.getPlayerUid(account);
+        
+        if (uid != 0) {
+            // Wait if the player was just released from memory
+            var release = this.releasingPlayers.get(uid);
+            
+            if (release != null) {
+                release.exceptionally(e -> null).join();
+            }
+            
+            // Loading the player now would miss its queued changes, and they would be overwritten by the next save
+            if (!Nebula.getGameDatabase().flush(uid)) {
+                throw new IllegalStateException("Unable to write queued changes of player " + uid + " to the database");
+            }
+        }
+        
+        // Retrieve player object from database
+        Player player = Nebula.getGameDatabase().getObjectByField(Player.class, "accountUid", account.getUid());
+        
+        if (player == null || this.isPurging(player.getUid())) {
+            return null;
+        }
+        
+        // Load player
+        player.onLoad();
+        
+        // Put in cache, unless the player was cached while we were loading it
+        synchronized (this) {
+            var cached = this.cachedPlayersByAccount.get(account.getUid());
+            
+            if (cached != null) {
+                this.warmPlayers.remove(cached.getUid());
+                return cached;
+            }
+            
+            // Player is being deleted
+            if (this.purging.contains(player.getUid())) {
+                return null;
+            }
+            
+            this.addToCache(player);
+        }
+        
         return player;
     }
+    
+    private int getPlayerUid(Account account) {
+        var collection = Nebula.getGameDatabase().getDatastore().getCollection(Player.class).withDocumentClass(Document.class);
+        var document = collection.find(Filters.eq("accountUid", account.getUid())).projection(Projections.include("_id")).first();
+        
+        if (document != null && document.get("_id") instanceof Number uid) {
+            return uid.intValue();
+        }
+        
+        return 0;
+    }
+    
+    private synchronized boolean isPurging(int uid) {
+        return this.purging.contains(uid);
+    }
 
     /**
-     * Creates a player with the specified user id.
+     * Creates a player with the specified user id. Returns null if this account already has a player, or if another
+     * session is loading or creating the player of this account right now.
      * @param userId
      * @return
      */
-    public synchronized Player createPlayer(GameSession session, String name, boolean gender) {
-        // Make sure player doesnt already exist
+    public Player createPlayer(GameSession session, String name, boolean gender) {
+        // Only one session may load or create the player of an account at a time
+        var account = session.getAccount();
+        var future = new CompletableFuture<Player>();
+        
+        if (this.loadingPlayers.putIfAbsent(account.getUid(), future) != null) {
+            return null;
+        }
+        
+        return this.completeLoading(account.getUid(), future, () -> this.createPlayerInDatabase(session, name, gender));
+    }
+    
+    private Player createPlayerInDatabase(GameSession session, String name, boolean gender) {
+        // Make sure player doesnt already exist, players that were just created may only be in the cache
+        synchronized (this) {
+            if (this.cachedPlayersByAccount.containsKey(session.getAccount().getUid())) {
+                return null;
+            }
+        }
+        
         if (Nebula.getGameDatabase().checkIfObjectExists(Player.class, "accountUid", session.getAccount().getUid())) {
             return null;
         }
@@ -125,86 +348,118 @@ public class PlayerModule extends GameContextModule {
             name = name.substring(0, 19);
         }
 
-        // Create player and save to db
+        // Create player and save to db. Written right away instead of queued, so that the existence check above always sees it
         var player = new Player(session.getAccount(), name, gender);
         player.onLoad();
-        player.save();
+        Nebula.getGameDatabase().save(player);
         
         // Send welcome mail
         player.getMailbox().sendWelcomeMail();
         
         // Put in player cache
-        this.addToCache(player);
+        synchronized (this) {
+            this.addToCache(player);
+        }
 
         return player;
     }
     
     /**
-     * Deletes a player from the database. The player must be offline.
-     * @param uid
+     * Returns the uids of all players that have not logged in since this time
+     * @param cutoff Time in milliseconds
      * @return
      */
-    public synchronized boolean deletePlayer(int uid) {
-        // Make sure player is not online when we are deleting the player
-        Player player = this.getCachedPlayerByUid(uid);
-        if (player != null) {
-            return false;
-        }
+    public IntList getInactivePlayers(long cutoff) {
+        var results = new IntArrayList();
+        var collection = Nebula.getGameDatabase().getDatastore().getCollection(Player.class).withDocumentClass(Document.class);
+        var documents = collection.find(Filters.lt("lastLogin", cutoff)).projection(Projections.include("_id"));
         
-        // Get player from database
-        player = Nebula.getGameDatabase().getObjectByUid(Player.class, uid);
-        if (player == null) {
-            return false;
+        for (var document : documents) {
+            if (document.get("_id") instanceof Number uid) {
+                results.add(uid.intValue());
+            }
         }
         
-        // Cache filter objects so we can reuse it for our delete queries
-        var multiFilter = Filters.eq("playerUid", uid);
-        var idFilter = Filters.eq("_id", uid);
-        
-        // Get datastore
-        var datastore = Nebula.getGameDatabase().getDatastore();
-        
-        // Delete data from collections
-        datastore.getCollection(GameCharacter.class).deleteMany(multiFilter);
-        datastore.getCollection(GameDisc.class).deleteMany(multiFilter);
-        datastore.getCollection(GameItem.class).deleteMany(multiFilter);
-        datastore.getCollection(GameResource.class).deleteMany(multiFilter);
-        datastore.getCollection(StarTowerBuild.class).deleteMany(multiFilter);
-
-        datastore.getCollection(Inventory.class).deleteOne(idFilter);
-        datastore.getCollection(FormationManager.class).deleteOne(idFilter);
-        datastore.getCollection(Mailbox.class).deleteOne(idFilter);
-        datastore.getCollection(PlayerProgress.class).deleteOne(idFilter);
-        datastore.getCollection(GachaManager.class).deleteOne(idFilter);
-        datastore.getCollection(StoryManager.class).deleteOne(idFilter);
-        datastore.getCollection(QuestManager.class).deleteOne(idFilter);
-        datastore.getCollection(AgentManager.class).deleteOne(idFilter);
+        return results;
+    }
+    
+    /**
+     * Deletes a player from the database. The player must be offline. Blocks until the player is deleted.
+     * @param uid
+     * @return
+     */
+    public boolean deletePlayer(int uid) {
+        var purge = this.purgePlayers(IntList.of(uid));
+        return purge.getFuture().join().getDeletedPlayers().get() > 0;
+    }
+    
+    /**
+     * Starts deleting these players from the database in the background. Players that are online are skipped.
+     * Skipped players can not be loaded until the purge is complete.
+     * @param uids
+     * @return
+     */
+    public PlayerPurge purgePlayers(IntCollection uids) {
+        var list = new IntArrayList(uids.size());
+        var releases = new ArrayList<CompletableFuture<Void>>();
         
-        datastore.getCollection(BattlePass.class).deleteOne(idFilter);
-        datastore.getCollection(ScoreBossRankEntry.class).deleteOne(idFilter);
+        synchronized (this) {
+            for (int uid : uids) {
+                // Remove disconnected players from memory first
+                var warm = this.warmPlayers.get(uid);
+                
+                if (warm != null && !warm.player().hasSession()) {
+                    this.releasePlayer(warm.player());
+                }
+                
+                if (!this.cachedPlayers.containsKey(uid) && this.purging.add(uid)) {
+                    list.add(uid);
+                    
+                    // The purge waits until the player is written, so that queued tasks cant save it after it is deleted
+                    var release = this.releasingPlayers.get(uid);
+                    
+                    if (release != null) {
+                        releases.add(release);
+                    }
+                }
+            }
+        }
         
-        // Delete friendships
-        datastore.getCollection(Friendship.class).deleteMany(Filters.or(Filters.eq("playerUid", uid), Filters.eq("friendUid", uid)));
+        // Start purge, this module is not locked while players are being deleted
+        var purge = new PlayerPurge(list, releases);
         
-        // Finally delete the player
-        datastore.getCollection(Player.class).deleteOne(idFilter);
+        purge.start(() -> {
+            // Clear cached data of deleted players
+            for (int uid : list) {
+                this.profileCache.invalidate(uid);
+                this.getGameContext().getFriendRecommendationModule().remove(uid);
+                this.getGameContext().getScoreBossModule().remove(uid);
+            }
+            
+            // Remove deleted players from the friend lists of players in memory
+            var purged = new IntOpenHashSet(list);
+            List<Player> players = null;
+            
+            synchronized (this) {
+                this.purging.removeAll(list);
+                players = new ArrayList<>(this.cachedPlayers.values());
+            }
+            
+            for (var player : players) {
+                if (player.isLoaded()) {
+                    player.getExecutor().execute(() -> player.getFriendList().onPlayersPurged(purged));
+                }
+            }
+        }).whenComplete((result, error) -> {
+            if (error != null) {
+                Nebula.getLogger().error("Error purging players: ", error);
+            }
+        });
         
-        // Success
-        return true;
+        return purge;
     }
     
-    /**
-     * Returns a list of recent players that have logged on
-     * @param player Player that requested this
-     */
-    public synchronized List<Player> getRandomPlayerList(Player player) {
-        List<Player> list = getCachedPlayers().values().stream()
-                .filter(p -> p != player)
-                .limit(10)
-                .collect(Collectors.toList());
-        
-        Collections.shuffle(list);
+    private static record WarmPlayer(Player player, long expiry) {
         
-        return list.stream().toList();
     }
 }
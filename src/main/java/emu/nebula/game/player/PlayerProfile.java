@@ -0,0 +1,109 @@
+package emu.nebula.game.player;
+
+import java.util.List;
+
+import org.bson.Document;
+
+import emu.nebula.proto.Public.CharShow;
+import emu.nebula.proto.Public.Friend;
+import emu.nebula.proto.Public.HonorInfo;
+import lombok.Getter;
+
+/**
+ * Summary of a player that is shown to other players (friend lists, search). Immutable, so it can be shared between threads.
+ */
+@Getter
+public class PlayerProfile {
+    // Player fields that a profile is loaded from
+    public static final String[] FIELDS = {"name", "signature", "headIcon", "titlePrefix", "titleSuffix", "level", "lastLogin", "honor", "showChars"};
+    
+    private final int uid;
+    private final String name;
+    private final String signature;
+    private final int headIcon;
+    private final int titlePrefix;
+    private final int titleSuffix;
+    private final int level;
+    private final long lastLogin;
+    private final int[] honor;
+    private final int[] showChars;
+    
+    public PlayerProfile(Player player) {
+        this.uid = player.getUid();
+        this.name = player.getName();
+        this.signature = player.getSignature();
+        this.headIcon = player.getHeadIcon();
+        this.titlePrefix = player.getTitlePrefix();
+        this.titleSuffix = player.getTitleSuffix();
+        this.level = player.getLevel();
+        this.lastLogin = player.getLastLogin();
+        this.honor = player.getHonor() != null ? player.getHonor().clone() : new int[0];
+        this.showChars = player.getShowChars() != null ? player.getShowChars().clone() : new int[0];
+    }
+    
+    /**
+     * Creates a profile from a player document that was loaded with a projection of {@link #FIELDS}
+     */
+    public PlayerProfile(Document document) {
+        this.uid = getInt(document, "_id");
+        this.name = document.getString("name");
+        this.signature = document.getString("signature");
+        this.headIcon = getInt(document, "headIcon");
+        this.titlePrefix = getInt(document, "titlePrefix");
+        this.titleSuffix = getInt(document, "titleSuffix");
+        this.level = getInt(document, "level");
+        this.lastLogin = document.get("lastLogin") instanceof Number n ? n.longValue() : 0;
+        this.honor = getIntArray(document, "honor");
+        this.showChars = getIntArray(document, "showChars");
+    }
+    
+    private static int getInt(Document document, String field) {
+        return document.get(field) instanceof Number n ? n.intValue() : 0;
+    }
+    
+    private static int[] getIntArray(Document document, String field) {
+        if (!(document.get(field) instanceof List<?> list)) {
+            return new int[0];
+        }
+        
+        int[] array = new int[list.size()];
+        
+        for (int i = 0; i < array.length; i++) {
+            array[i] = list.get(i) instanceof Number n ? n.intValue() : 0;
+        }
+        
+        return array;
+    }
+    
+    // Proto
+    
+    public Friend toProto() {
+        var proto = Friend.newInstance()
+                .setId(this.getUid())
+                .setWorldClass(this.getLevel())
+                .setHeadIcon(this.getHeadIcon())
+                .setNickName(this.getName())
+                .setSignature(this.getSignature())
+                .setTitlePrefix(this.getTitlePrefix())
+                .setTitleSuffix(this.getTitleSuffix())
+                .setLastLoginTime(this.getLastLogin() * 1_000_000L);
+        
+        for (int charId : this.getShowChars()) {
+            var info = CharShow.newInstance()
+                    .setCharId(charId)
+                    .setLevel(1)                    // TODO
+                    .setSkin((charId * 100) + 1);   // TODO
+            
+            proto.addCharShows(info);
+        }
+        
+        for (int honorId : this.getHonor()) {
+            var info = HonorInfo.newInstance()
+                    .setId(honorId);
+            
+            proto.addHonors(info);
+        }
+        
+        return proto;
+    }
+}
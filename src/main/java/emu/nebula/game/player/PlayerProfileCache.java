@@ -0,0 +1,116 @@
+package emu.nebula.game.player;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.bson.Document;
+
+import com.mongodb.client.model.Filters;
+import com.mongodb.client.model.Projections;
+
+import emu.nebula.Nebula;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntCollection;
+import it.unimi.dsi.fastutil.ints.IntList;
+
+/**
+ * Size limited LRU cache of player profiles, so that showing other players does not need to load their full player data.
+ * Profiles of loaded players are always taken from the player object, which caches its own profile. Players write their
+ * profile through to this cache whenever it changes.
+ */
+public class PlayerProfileCache {
+    private final PlayerModule playerModule;
+    private final Map<Integer, PlayerProfile> profiles;
+    
+    public PlayerProfileCache(PlayerModule playerModule, int maxSize) {
+        this.playerModule = playerModule;
+        this.profiles = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, PlayerProfile> eldest) {
+                return size() > Math.max(maxSize, 1);
+            }
+        };
+    }
+    
+    public synchronized int size() {
+        return this.profiles.size();
+    }
+    
+    private synchronized PlayerProfile get(int uid) {
+        return this.profiles.get(uid);
+    }
+    
+    private synchronized void putIfAbsent(PlayerProfile profile) {
+        this.profiles.putIfAbsent(profile.getUid(), profile);
+    }
+    
+    /**
+     * Writes the current profile of this player to the cache
+     */
+    public synchronized void update(Player player) {
+        this.profiles.put(player.getUid(), player.getProfile());
+    }
+    
+    public synchronized void invalidate(int uid) {
+        this.profiles.remove(uid);
+    }
+    
+    /**
+     * Returns the profile of a player, or null if the player does not exist
+     */
+    public PlayerProfile getProfile(int uid) {
+        return this.getProfiles(IntList.of(uid)).get(uid);
+    }
+    
+    /**
+     * Returns the profiles of these players. Profiles that are not cached are loaded from the database with a single query.
+     */
+    public Int2ObjectMap<PlayerProfile> getProfiles(IntCollection uids) {
+        var results = new Int2ObjectOpenHashMap<PlayerProfile>(uids.size());
+        var missing = new IntArrayList();
+        
+        for (int uid : uids) {
+            if (results.containsKey(uid)) {
+                continue;
+            }
+            
+            // Loaded players always have an up to date profile
+            var player = this.playerModule.getCachedPlayerByUid(uid);
+            
+            if (player != null) {
+                results.put(uid, player.getProfile());
+                continue;
+            }
+            
+            // Check cache
+            var profile = this.get(uid);
+            
+            if (profile != null) {
+                results.put(uid, profile);
+            } else {
+                missing.add(uid);
+            }
+        }
+        
+        if (missing.isEmpty()) {
+            return results;
+        }
+        
+        // Load missing profiles from the database
+        var collection = Nebula.getGameDatabase().getDatastore().getCollection(Player.class).withDocumentClass(Document.class);
+        var documents = collection.find(Filters.in("_id", missing)).projection(Projections.include(PlayerProfile.FIELDS));
+        
+        for (var document : documents) {
+            var profile = new PlayerProfile(document);
+            
+            results.put(profile.getUid(), profile);
+            this.putIfAbsent(profile);
+        }
+        
+        return results;
+    }
+}
@@ -0,0 +1,194 @@
+package emu.nebula.game.player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.bson.conversions.Bson;
+
+import com.mongodb.client.model.Filters;
+
+import emu.nebula.Nebula;
+import emu.nebula.game.agent.AgentManager;
+import emu.nebula.game.battlepass.BattlePass;
+import emu.nebula.game.character.GameCharacter;
+import emu.nebula.game.character.GameDisc;
+import emu.nebula.game.formation.FormationManager;
+import emu.nebula.game.friends.Friendship;
+import emu.nebula.game.gacha.GachaManager;
+import emu.nebula.game.inventory.GameItem;
+import emu.nebula.game.inventory.GameResource;
+import emu.nebula.game.inventory.Inventory;
+import emu.nebula.game.mail.GameMail;
+import emu.nebula.game.mail.Mailbox;
+import emu.nebula.game.quest.QuestManager;
+import emu.nebula.game.scoreboss.ScoreBossRankEntry;
+import emu.nebula.game.story.StoryManager;
+import emu.nebula.game.tower.StarTowerBuild;
+import emu.nebula.game.tower.StarTowerCheckpoint;
+import it.unimi.dsi.fastutil.ints.IntList;
+import lombok.Getter;
+
+/**
+ * Background job that deletes a batch of players and all of their data. Uids are split into batches, and each
+ * collection is cleaned with one $in query per batch. Queries run in parallel, the player documents themselves
+ * are deleted last.
+ */
+@Getter
+public class PlayerPurge {
+    private static final int BATCH_SIZE = 1000;
+    private static final ExecutorService EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+    
+    // Player data collections and the filter used to find the documents of a batch of players
+    private static final List<PurgeTarget> TARGETS = List.of(
+        new PurgeTarget(GameCharacter.class, uids -> Filters.in("playerUid", uids)),
+        new PurgeTarget(GameDisc.class, uids -> Filters.in("playerUid", uids)),
+        new PurgeTarget(GameItem.class, uids -> Filters.in("playerUid", uids)),
+        new PurgeTarget(GameResource.class, uids -> Filters.in("playerUid", uids)),
+        new PurgeTarget(StarTowerBuild.class, uids -> Filters.in("playerUid", uids)),
+        new PurgeTarget(GameMail.class, uids -> Filters.in("playerUid", uids)),
+        new PurgeTarget(Inventory.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(FormationManager.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(Mailbox.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(PlayerProgress.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(GachaManager.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(StoryManager.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(QuestManager.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(AgentManager.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(BattlePass.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(ScoreBossRankEntry.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(StarTowerCheckpoint.class, uids -> Filters.in("_id", uids)),
+        new PurgeTarget(Friendship.class, uids -> Filters.or(Filters.in("playerUid", uids), Filters.in("friendUid", uids)))
+    );
+    
+    private final IntList uids;
+    private final List<CompletableFuture<Void>> releases;
+    private final List<IntList> batches;
+    private final int totalTasks;
+    private final AtomicInteger completedTasks;
+    private final AtomicInteger deletedPlayers;
+    private final AtomicLong deletedDocuments;
+    private final CompletableFuture<PlayerPurge> future;
+    
+    private long startTime;
+    private long endTime;
+    
+    /**
+     * @param uids Players to delete
+     * @param releases Players that were just removed from memory, the purge waits until they are written first
+     */
+    public PlayerPurge(IntList uids, List<CompletableFuture<Void>> releases) {
+        this.uids = uids;
+        this.releases = releases;
+        this.batches = new ArrayList<>();
+        
+        for (int i = 0; i < uids.size(); i += BATCH_SIZE) {
+            this.batches.add(uids.subList(i, Math.min(i + BATCH_SIZE, uids.size())));
+        }
+        
+        this.totalTasks = this.batches.size() * (TARGETS.size() + 1);
+        this.completedTasks = new AtomicInteger();
+        this.deletedPlayers = new AtomicInteger();
+        this.deletedDocuments = new AtomicLong();
+        this.future = new CompletableFuture<>();
+    }
+    
+    public boolean isDone() {
+        return this.future.isDone();
+    }
+    
+    /**
+     * Returns the progress of this purge from 0 to 1
+     */
+    public double getProgress() {
+        return this.totalTasks > 0 ? this.completedTasks.get() / (double) this.totalTasks : 1D;
+    }
+    
+    /**
+     * Starts deleting players in the background. The returned future completes when all players are deleted and the
+     * cleanup task has run.
+     * @param cleanup Runs after the players are deleted, even if the purge failed
+     */
+    protected CompletableFuture<PlayerPurge> start(Runnable cleanup) {
+        if (this.startTime != 0) {
+            return this.future;
+        }
+        
+        this.startTime = System.currentTimeMillis();
+        
+        CompletableFuture.runAsync(this::run, EXECUTOR).whenComplete((result, error) -> {
+            this.endTime = System.currentTimeMillis();
+            
+            // Cleanup before completing, so that anyone waiting on this purge sees the players as fully removed
+            try {
+                cleanup.run();
+            } catch (Exception e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+            
+            if (error != null) {
+                this.future.completeExceptionally(error);
+            } else {
+                this.future.complete(this);
+            }
+        });
+        
+        return this.future;
+    }
+    
+    private void run() {
+        // Wait for players that are being removed from memory
+        CompletableFuture.allOf(this.releases.toArray(CompletableFuture[]::new))
+                .exceptionally(e -> null)
+                .join();
+        
+        // Write queued changes of these players first so they cant be written back after the players are deleted. Friendships
+        // of other players can point to these players too
+        if (!Nebula.getGameDatabase().flush(this.uids) || !Nebula.getGameDatabase().flush(Friendship.class)) {
+            throw new IllegalStateException("Unable to write queued changes of the purged players to the database");
+        }
+        
+        // Delete player data from all collections in parallel
+        var tasks = new ArrayList<CompletableFuture<Void>>();
+        
+        for (var target : TARGETS) {
+            for (var batch : this.batches) {
+                tasks.add(CompletableFuture.runAsync(() -> this.delete(target.type(), target.filter().apply(batch)), EXECUTOR));
+            }
+        }
+        
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+        
+        // Finally delete the players
+        tasks.clear();
+        
+        for (var batch : this.batches) {
+            tasks.add(CompletableFuture.runAsync(() -> {
+                long count = this.delete(Player.class, Filters.in("_id", batch));
+                this.deletedPlayers.addAndGet((int) count);
+            }, EXECUTOR));
+        }
+        
+        CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+    }
+    
+    private long delete(Class<?> type, Bson filter) {
+        var result = Nebula.getGameDatabase().getDatastore().getCollection(type).deleteMany(filter);
+        
+        this.deletedDocuments.addAndGet(result.getDeletedCount());
+        this.completedTasks.incrementAndGet();
+        
+        return result.getDeletedCount();
+    }
+    
+    private static record PurgeTarget(Class<?> type, Function<IntList, Bson> filter) {
+        
+    }
+}
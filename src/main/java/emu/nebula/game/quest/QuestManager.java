@@ -70,7 +70,7 @@ public class QuestManager extends PlayerManager implements GameDatabaseObject {
         Nebula.getGameDatabase().update(this, this.getUid(), "levelRewards", this.levelRewards);
     }
     
-    public synchronized int getActivity() {
+    public int getActivity() {
         int activity = 0;
         
         for (var quest : getQuests().values()) {
@@ -93,7 +93,7 @@ public class QuestManager extends PlayerManager implements GameDatabaseObject {
         return activity;
     }
     
-    public synchronized void resetDailyQuests() {
+    public void resetDailyQuests() {
         // Reset daily quests
         for (var data : GameData.getDailyQuestDataTable()) {
             // Get quest
@@ -114,7 +114,7 @@ public class QuestManager extends PlayerManager implements GameDatabaseObject {
         this.save();
     }
 
-    public synchronized void trigger(QuestCondType condition, int progress, int param) {
+    public void trigger(QuestCondType condition, int progress, int param) {
         for (var quest : getQuests().values()) {
             // Try to trigger quest
             boolean result = quest.trigger(condition, progress, param);
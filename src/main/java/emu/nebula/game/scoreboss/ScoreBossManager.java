@@ -84,6 +84,9 @@ public class ScoreBossManager extends PlayerManager  {
         // Save ranking
         this.ranking.save();
         
+        // Update leaderboard
+        Nebula.getGameContext().getScoreBossModule().update(this.ranking);
+        
         // Clear
         this.levelId = 0;
         this.buildId = 0;
@@ -1,56 +1,142 @@
 package emu.nebula.game.scoreboss;
 
-import java.util.ArrayList;
 import java.util.List;
 
 import emu.nebula.Nebula;
 import emu.nebula.game.GameContext;
 import emu.nebula.game.GameContextModule;
 import emu.nebula.proto.ScoreBossRank.ScoreBossRankData;
-import lombok.Getter;
+import emu.nebula.proto.ScoreBossRank.ScoreBossRankInfo;
 
-@Getter
+/**
+ * Score boss leaderboard. All entries are loaded from the database once and kept ranked in memory, settles update
+ * the ranking right away.
+ */
 public class ScoreBossModule extends GameContextModule {
-    private long lastUpdate;
-    private long nextUpdate;
-    private List<ScoreBossRankData> ranking;
+    private static final int TOP_SIZE = 50;
+    
+    private final ScoreBossRanking ranking;
+    private boolean loaded;
+    
+    // Ranking changes since the server started
+    private long version;
+    
+    // Encoded top ranking fields of the rank info proto, rebuilt when the version changes
+    private long cachedVersion;
+    private byte[] cachedTop;
     
     public ScoreBossModule(GameContext context) {
         super(context);
-        this.nextUpdate = -1;
-        this.ranking = new ArrayList<>();
+        this.ranking = new ScoreBossRanking();
+        this.cachedVersion = -1;
+        
+        // Load the ranking before any players log in, so that the first rank request does not load it while the module is locked
+        if (Nebula.getGameDatabase() != null) {
+            try {
+                this.load();
+            } catch (Exception e) {
+                Nebula.getLogger().error("Unable to load score boss ranking: ", e);
+            }
+        }
+    }
+    
+    /**
+     * Loads all entries from the database. The ranking is only changed once every entry has been read, so a failed
+     * load is tried again on the next call.
+     */
+    private void load() {
+        if (this.loaded) {
+            return;
+        }
+        
+        var entries = Nebula.getGameDatabase().getObjects(ScoreBossRankEntry.class).toList();
+        
+        for (var entry : entries) {
+            this.ranking.put(entry.getPlayerUid(), entry.getScore(), entry.toProto());
+        }
+        
+        this.loaded = true;
+        this.version++;
+    }
+    
+    /**
+     * Adds or updates the ranking of this entry. The entry is encoded right away, so it is safe to modify it later.
+     */
+    public synchronized void update(ScoreBossRankEntry entry) {
+        this.load();
+        this.ranking.put(entry.getPlayerUid(), entry.getScore(), entry.toProto());
+        this.version++;
+    }
+    
+    public synchronized void remove(int uid) {
+        this.load();
+        
+        if (this.ranking.remove(uid)) {
+            this.version++;
+        }
+    }
+    
+    public synchronized int getRank(int uid) {
+        this.load();
+        return this.ranking.getRank(uid);
     }
     
-    private long getRefreshTime() {
-        return Nebula.getConfig().getServerOptions().leaderboardRefreshTime * 1000;
+    public synchronized int getTotal() {
+        this.load();
+        return this.ranking.size();
     }
     
-    public synchronized List<ScoreBossRankData> getRanking() {
-        if (System.currentTimeMillis() > this.nextUpdate) {
-            this.updateRanking();
+    /**
+     * Returns a copy of the ranked entries of this player, with the rank set. Returns null if the player is not ranked.
+     */
+    public synchronized ScoreBossRankData getSelf(int uid) {
+        this.load();
+        
+        var data = this.ranking.getData(uid);
+        if (data == null) {
+            return null;
         }
         
-        return this.ranking;
+        return data.clone().setRank(this.ranking.getRank(uid));
     }
-
-    // Cache ranking so we dont query the database too much
-    private void updateRanking() {
-        // Clear
-        this.ranking.clear();
+    
+    /**
+     * Returns a copy of the entries ranked around this player
+     */
+    public synchronized List<ScoreBossRankData> getNeighbours(int uid, int radius) {
+        this.load();
         
-        // Get from database
-        var list = Nebula.getGameDatabase().getSortedObjects(ScoreBossRankEntry.class, "score", 50);
+        int rank = Math.max(this.ranking.getRank(uid) - radius, 1);
+        var list = this.ranking.getNeighbours(uid, radius);
         
         for (int i = 0; i < list.size(); i++) {
-            // Get rank entry and set proto
-            var entry = list.get(i);
-            entry.setRank(i + 1);
+            list.set(i, list.get(i).clone().setRank(rank + i));
+        }
+        
+        return list;
+    }
+    
+    /**
+     * Returns the encoded rank and total fields of the score boss rank info proto. The same array is shared by all
+     * callers until the ranking changes, so it should not be modified.
+     */
+    public synchronized byte[] getEncodedTop() {
+        this.load();
+        
+        if (this.cachedVersion != this.version) {
+            var proto = ScoreBossRankInfo.newInstance()
+                    .setTotal(this.ranking.size());
+            
+            var top = this.ranking.getRange(1, TOP_SIZE);
+            
+            for (int i = 0; i < top.size(); i++) {
+                proto.addRank(top.get(i).clone().setRank(i + 1));
+            }
             
-            // Add to ranking
-            this.ranking.add(entry.toProto());
+            this.cachedTop = proto.toByteArray();
+            this.cachedVersion = this.version;
         }
         
-        this.nextUpdate = System.currentTimeMillis() + this.getRefreshTime();
-        this.lastUpdate = Nebula.getCurrentTime();
+        return this.cachedTop;
     }
 }
@@ -0,0 +1,239 @@
+package emu.nebula.game.scoreboss;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+import emu.nebula.proto.ScoreBossRank.ScoreBossRankData;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+
+/**
+ * Ranked list of score boss entries, sorted by score (highest first) and then by player uid. Backed by an indexable
+ * skip list, so that inserts, removals, rank lookups and lookups by rank are all O(log n). Not thread safe.
+ */
+public class ScoreBossRanking {
+    private static final int MAX_LEVEL = 16;
+    
+    private final Node head;
+    private final Int2ObjectOpenHashMap<Node> nodes;
+    private int level;
+    
+    public ScoreBossRanking() {
+        this.head = new Node(0, 0, null, MAX_LEVEL);
+        this.nodes = new Int2ObjectOpenHashMap<>();
+        this.level = 1;
+    }
+    
+    public int size() {
+        return this.nodes.size();
+    }
+    
+    /**
+     * Adds or moves the entry of this player
+     */
+    public void put(int uid, int score, ScoreBossRankData data) {
+        this.remove(uid);
+        
+        var update = new Node[MAX_LEVEL];
+        var rank = new int[MAX_LEVEL];
+        var x = this.head;
+        
+        // Find the nodes before the new node on each level
+        for (int i = this.level - 1; i >= 0; i--) {
+            rank[i] = i == this.level - 1 ? 0 : rank[i + 1];
+            
+            while (x.next[i] != null && x.next[i].compareTo(score, uid) < 0) {
+                rank[i] += x.span[i];
+                x = x.next[i];
+            }
+            
+            update[i] = x;
+        }
+        
+        // Grow list if needed
+        int nodeLevel = randomLevel();
+        
+        if (nodeLevel > this.level) {
+            for (int i = this.level; i < nodeLevel; i++) {
+                rank[i] = 0;
+                update[i] = this.head;
+                update[i].span[i] = this.size();
+            }
+            
+            this.level = nodeLevel;
+        }
+        
+        // Link node
+        var node = new Node(uid, score, data, nodeLevel);
+        
+        for (int i = 0; i < nodeLevel; i++) {
+            node.next[i] = update[i].next[i];
+            update[i].next[i] = node;
+            
+            node.span[i] = update[i].span[i] - (rank[0] - rank[i]);
+            update[i].span[i] = (rank[0] - rank[i]) + 1;
+        }
+        
+        for (int i = nodeLevel; i < this.level; i++) {
+            update[i].span[i]++;
+        }
+        
+        this.nodes.put(uid, node);
+    }
+    
+    public boolean remove(int uid) {
+        var node = this.nodes.remove(uid);
+        if (node == null) {
+            return false;
+        }
+        
+        // Find the nodes before the removed node on each level
+        var update = new Node[MAX_LEVEL];
+        var x = this.head;
+        
+        for (int i = this.level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i].compareTo(node.score, node.uid) < 0) {
+                x = x.next[i];
+            }
+            
+            update[i] = x;
+        }
+        
+        // Unlink node
+        for (int i = 0; i < this.level; i++) {
+            if (update[i].next[i] == node) {
+                update[i].span[i] += node.span[i] - 1;
+                update[i].next[i] = node.next[i];
+            } else {
+                update[i].span[i]--;
+            }
+        }
+        
+        while (this.level > 1 && this.head.next[this.level - 1] == null) {
+            this.level--;
+        }
+        
+        return true;
+    }
+    
+    /**
+     * Returns the rank of this player, starting from 1. Returns 0 if the player is not ranked.
+     */
+    public int getRank(int uid) {
+        var node = this.nodes.get(uid);
+        if (node == null) {
+            return 0;
+        }
+        
+        int rank = 0;
+        var x = this.head;
+        
+        for (int i = this.level - 1; i >= 0; i--) {
+            while (x.next[i] != null && x.next[i].compareTo(node.score, node.uid) <= 0) {
+                rank += x.span[i];
+                x = x.next[i];
+            }
+            
+            if (x == node) {
+                return rank;
+            }
+        }
+        
+        return 0;
+    }
+    
+    public ScoreBossRankData getData(int uid) {
+        var node = this.nodes.get(uid);
+        return node != null ? node.data : null;
+    }
+    
+    /**
+     * Returns up to this many entries, starting from this rank. Ranks start from 1.
+     */
+    public List<ScoreBossRankData> getRange(int rank, int count) {
+        var results = new ArrayList<ScoreBossRankData>(Math.max(Math.min(count, this.size() - rank + 1), 0));
+        var x = this.getNode(rank);
+        
+        while (x != null && results.size() < count) {
+            results.add(x.data);
+            x = x.next[0];
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Returns the entries ranked around this player, including the player
+     */
+    public List<ScoreBossRankData> getNeighbours(int uid, int radius) {
+        int rank = this.getRank(uid);
+        if (rank == 0) {
+            return List.of();
+        }
+        
+        int start = Math.max(rank - radius, 1);
+        return this.getRange(start, rank + radius - start + 1);
+    }
+    
+    private Node getNode(int rank) {
+        if (rank < 1 || rank > this.size()) {
+            return null;
+        }
+        
+        int traversed = 0;
+        var x = this.head;
+        
+        for (int i = this.level - 1; i >= 0; i--) {
+            while (x.next[i] != null && traversed + x.span[i] <= rank) {
+                traversed += x.span[i];
+                x = x.next[i];
+            }
+            
+            if (traversed == rank) {
+                return x;
+            }
+        }
+        
+        return null;
+    }
+    
+    private static int randomLevel() {
+        // Each level has a 1 in 4 chance of being promoted
+        int bits = ThreadLocalRandom.current().nextInt();
+        int level = 1;
+        
+        while (level < MAX_LEVEL && (bits & 3) == 0) {
+            level++;
+            bits >>>= 2;
+        }
+        
+        return level;
+    }
+    
+    private static class Node {
+        private final int uid;
+        private final int score;
+        private final ScoreBossRankData data;
+        private final Node[] next;
+        private final int[] span;
+        
+        private Node(int uid, int score, ScoreBossRankData data, int level) {
+            this.uid = uid;
+            this.score = score;
+            this.data = data;
+            this.next = new Node[level];
+            this.span = new int[level];
+        }
+        
+        /**
+         * Returns a negative number if this node is ranked before the given score and uid
+         */
+        private int compareTo(int score, int uid) {
+            if (this.score != score) {
+                return this.score > score ? -1 : 1;
+            }
+            
+            return Integer.compare(this.uid, uid);
+        }
+    }
+}
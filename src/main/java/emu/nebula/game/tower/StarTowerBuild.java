@@ -3,6 +3,8 @@ package emu.nebula.game.tower;
 import dev.morphia.annotations.Entity;
 import dev.morphia.annotations.Id;
 import dev.morphia.annotations.Indexed;
+import dev.morphia.query.FindOptions;
+import dev.morphia.query.filters.Filters;
 import emu.nebula.Nebula;
 import emu.nebula.data.GameData;
 import emu.nebula.database.GameDatabaseObject;
@@ -20,6 +22,10 @@ import lombok.Getter;
 @Getter
 @Entity(value = "builds", useDiscriminator = false)
 public class StarTowerBuild implements GameDatabaseObject {
+    // Builds are loaded without their details, these are only needed when a single build is viewed
+    public static final FindOptions BRIEF_OPTIONS = new FindOptions().projection().exclude("potentials", "subNoteSkills");
+    private static final FindOptions DETAIL_OPTIONS = new FindOptions().projection().include("potentials", "subNoteSkills");
+    
     @Id
     private int uid;
     @Indexed
@@ -43,7 +49,7 @@ public class StarTowerBuild implements GameDatabaseObject {
     }
     
     public StarTowerBuild(StarTowerGame game) {
-        this.uid = Snowflake.newUid();
+        this.uid = StarTowerBuild.getNextUid();
         this.playerUid = game.getPlayer().getUid();
         this.name = "";
         this.charPots = new ItemParamMap();
@@ -107,6 +113,39 @@ public class StarTowerBuild implements GameDatabaseObject {
         Nebula.getGameDatabase().update(this, this.getUid(), "preference", this.isPreference());
     }
     
+    // Details
+    
+    public boolean hasDetails() {
+        return this.potentials != null && this.subNoteSkills != null;
+    }
+    
+    /**
+     * Loads the potentials and sub note skills of a build that was loaded with BRIEF_OPTIONS
+     */
+    public void loadDetails() {
+        var details = Nebula.getGameDatabase().getDatastore()
+                .find(StarTowerBuild.class)
+                .filter(Filters.eq("_id", this.getUid()))
+                .iterator(DETAIL_OPTIONS)
+                .tryNext();
+        
+        if (details != null && details.hasDetails()) {
+            this.potentials = details.getPotentials();
+            this.subNoteSkills = details.getSubNoteSkills();
+        } else {
+            this.potentials = new ItemParamMap();
+            this.subNoteSkills = new ItemParamMap();
+        }
+    }
+    
+    /**
+     * Frees the details of this build. Builds without details must never be saved with save(), as that would overwrite them.
+     */
+    public void unloadDetails() {
+        this.potentials = null;
+        this.subNoteSkills = null;
+    }
+    
     // Score
     
     private int calculateScore() {
@@ -188,7 +227,14 @@ public class StarTowerBuild implements GameDatabaseObject {
     
     // Database
 
+    /**
+     * Returns a new unique build id. Ids start above the ones that were made by the old 32 bit snowflake.
+     */
+    public static int getNextUid() {
+        return Nebula.getGameDatabase().getIdService().getNextId(StarTowerBuild.class, Snowflake.getLegacyUidLimit());
+    }
+    
     public void delete() {
-        Nebula.getGameDatabase().delete(this);
+        Nebula.getGameDatabase().queueDelete(this);
     }
 }
@@ -1,5 +1,8 @@
 package emu.nebula.game.tower;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -39,6 +42,35 @@ public class StarTowerCase {
         this.type = type;
     }
     
+    public StarTowerCase(DataInput input) throws IOException {
+        this.id = input.readInt();
+        this.type = CaseType.getByValue(input.readUnsignedByte());
+        this.teamLevel = input.readInt();
+        this.subNoteSkillNum = input.readInt();
+        this.floorId = input.readInt();
+        this.roomType = input.readInt();
+        this.eventId = input.readInt();
+        this.npcId = input.readInt();
+        
+        // Selector
+        int idCount = input.readUnsignedShort();
+        for (int i = 0; i < idCount; i++) {
+            this.addId(input.readInt());
+        }
+        
+        // Hawker
+        int goodsCount = input.readUnsignedShort();
+        for (int i = 0; i < goodsCount; i++) {
+            int sid = input.readInt();
+            
+            if (this.goodsList == null) {
+                this.goodsList = new HashMap<>();
+            }
+            
+            this.goodsList.put(sid, new StarTowerShopGoods(input));
+        }
+    }
+    
     public void addId(int id) {
         if (this.ids == null) {
             this.ids = new IntArrayList();
@@ -67,6 +99,42 @@ public class StarTowerCase {
         this.getGoodsList().put(getGoodsList().size() + 1, goods);
     }
     
+    // Checkpoint
+    
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeInt(this.getId());
+        output.writeByte(this.getType().getValue());
+        output.writeInt(this.getTeamLevel());
+        output.writeInt(this.getSubNoteSkillNum());
+        output.writeInt(this.getFloorId());
+        output.writeInt(this.getRoomType());
+        output.writeInt(this.getEventId());
+        output.writeInt(this.getNpcId());
+        
+        // Selector
+        if (this.getIds() != null) {
+            output.writeShort(this.getIds().size());
+            
+            for (int id : this.getIds()) {
+                output.writeInt(id);
+            }
+        } else {
+            output.writeShort(0);
+        }
+        
+        // Hawker
+        if (this.getGoodsList() != null) {
+            output.writeShort(this.getGoodsList().size());
+            
+            for (var entry : this.getGoodsList().entrySet()) {
+                output.writeInt(entry.getKey());
+                entry.getValue().writeTo(output);
+            }
+        } else {
+            output.writeShort(0);
+        }
+    }
+    
     // Proto
     
     public StarTowerRoomCase toProto() {
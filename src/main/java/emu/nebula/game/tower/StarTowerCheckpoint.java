@@ -0,0 +1,76 @@
+package emu.nebula.game.tower;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import dev.morphia.annotations.Entity;
+import dev.morphia.annotations.Id;
+import emu.nebula.Nebula;
+import emu.nebula.data.GameData;
+import emu.nebula.database.GameDatabaseObject;
+import lombok.Getter;
+
+/**
+ * Saved state of an in progress star tower game, so that the game can be continued after the server restarts
+ * or the player is unloaded.
+ */
+@Getter
+@Entity(value = "star_tower_checkpoints", useDiscriminator = false)
+public class StarTowerCheckpoint implements GameDatabaseObject {
+    private static final int VERSION = 1;
+    
+    @Id
+    private int playerUid;
+    private int towerId;
+    private int floor;
+    private long time;
+    private byte[] data;
+    
+    @Deprecated // Morphia only
+    public StarTowerCheckpoint() {
+        
+    }
+    
+    public StarTowerCheckpoint(StarTowerGame game) throws IOException {
+        this.playerUid = game.getPlayer().getUid();
+        this.towerId = game.getId();
+        this.floor = game.getFloor();
+        this.time = Nebula.getCurrentTime();
+        
+        // Encode game
+        var bytes = new ByteArrayOutputStream(512);
+        var output = new DataOutputStream(bytes);
+        
+        output.writeByte(VERSION);
+        game.writeTo(output);
+        
+        this.data = bytes.toByteArray();
+    }
+    
+    /**
+     * Creates the game that was saved in this checkpoint. Returns null if the checkpoint can not be used anymore.
+     */
+    public StarTowerGame restore(StarTowerManager manager) throws IOException {
+        // Get tower data
+        var towerData = GameData.getStarTowerDataTable().get(this.getTowerId());
+        if (towerData == null || this.getData() == null) {
+            return null;
+        }
+        
+        // Decode game
+        var input = new DataInputStream(new ByteArrayInputStream(this.getData()));
+        
+        if (input.readUnsignedByte() != VERSION) {
+            return null;
+        }
+        
+        return new StarTowerGame(manager, towerData, input);
+    }
+    
+    public void delete() {
+        Nebula.getGameDatabase().queueDelete(this);
+    }
+}
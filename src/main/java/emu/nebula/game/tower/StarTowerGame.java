@@ -1,5 +1,8 @@
 package emu.nebula.game.tower;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -18,7 +21,6 @@ import emu.nebula.proto.PublicStarTower.*;
 import emu.nebula.proto.StarTowerApply.StarTowerApplyReq;
 import emu.nebula.proto.StarTowerInteract.StarTowerInteractReq;
 import emu.nebula.proto.StarTowerInteract.StarTowerInteractResp;
-import emu.nebula.util.Snowflake;
 import emu.nebula.util.Utils;
 
 import it.unimi.dsi.fastutil.ints.Int2IntMap;
@@ -102,7 +104,7 @@ public class StarTowerGame {
         this.paramId = req.getParamId();
         
         this.formationId = req.getFormationId();
-        this.buildId = Snowflake.newUid();
+        this.buildId = StarTowerBuild.getNextUid();
         this.teamLevel = 1;
         this.teamExp = 0;
         this.nextLevelExp = GameData.getStarTowerTeamExpDataTable().get(2).getNeedExp();
@@ -180,6 +182,69 @@ public class StarTowerGame {
         this.addCase(new StarTowerCase(CaseType.SyncHP));
     }
     
+    /**
+     * Restores a game from a checkpoint that was written with writeTo
+     */
+    public StarTowerGame(StarTowerManager manager, StarTowerDef data, DataInput input) throws IOException {
+        this.manager = manager;
+        this.data = data;
+        this.id = data.getId();
+        
+        // Room
+        this.stageNum = input.readInt();
+        this.stageFloor = input.readInt();
+        this.floor = input.readInt();
+        this.mapId = input.readInt();
+        this.mapTableId = input.readInt();
+        this.mapParam = input.readBoolean() ? input.readUTF() : null;
+        this.paramId = input.readInt();
+        this.roomType = input.readInt();
+        
+        // Team
+        this.formationId = input.readInt();
+        this.buildId = input.readInt();
+        this.teamLevel = input.readInt();
+        this.teamExp = input.readInt();
+        this.nextLevelExp = input.readInt();
+        this.charHp = input.readInt();
+        this.battleTime = input.readInt();
+        this.battleCount = input.readInt();
+        
+        this.chars = new ArrayList<>();
+        this.discs = new ArrayList<>();
+        this.charIds = readIntList(input);
+        
+        int charCount = input.readUnsignedByte();
+        for (int i = 0; i < charCount; i++) {
+            this.chars.add(StarTowerChar.parseFrom(readBytes(input)));
+        }
+        
+        int discCount = input.readUnsignedByte();
+        for (int i = 0; i < discCount; i++) {
+            this.discs.add(StarTowerDisc.parseFrom(readBytes(input)));
+        }
+        
+        // Cases
+        this.lastCaseId = input.readInt();
+        this.pendingPotentialCases = input.readInt();
+        this.cases = new ArrayList<>();
+        this.cachedCases = new Int2IntOpenHashMap();
+        
+        int caseCount = input.readUnsignedShort();
+        for (int i = 0; i < caseCount; i++) {
+            this.cases.add(new StarTowerCase(input));
+            this.cacheCaseIndex(this.cases.get(i));
+        }
+        
+        // Bag
+        this.items = readItemParamMap(input);
+        this.res = readItemParamMap(input);
+        this.potentials = readItemParamMap(input);
+        this.newInfos = new ItemParamMap();
+        
+        this.subNoteDropList = readIntList(input);
+    }
+    
     public Player getPlayer() {
         return this.manager.getPlayer();
     }
@@ -462,6 +527,11 @@ public class StarTowerGame {
         // Set these protos
         rsp.getMutableChange();
         
+        // Save progress when entering a new room
+        if (req.hasEnterReq() && this.getManager().getGame() == this) {
+            this.getManager().saveCheckpoint();
+        }
+        
         return rsp;
     }
     
@@ -755,6 +825,114 @@ public class StarTowerGame {
         return rsp;
     }
     
+    // Checkpoint
+    
+    /**
+     * Writes the state of this game in a compact binary form, so that it can be restored after the player is unloaded
+     */
+    public void writeTo(DataOutput output) throws IOException {
+        // Room
+        output.writeInt(this.getStageNum());
+        output.writeInt(this.getStageFloor());
+        output.writeInt(this.getFloor());
+        output.writeInt(this.getMapId());
+        output.writeInt(this.getMapTableId());
+        output.writeBoolean(this.getMapParam() != null);
+        if (this.getMapParam() != null) {
+            output.writeUTF(this.getMapParam());
+        }
+        output.writeInt(this.getParamId());
+        output.writeInt(this.getRoomType());
+        
+        // Team
+        output.writeInt(this.getFormationId());
+        output.writeInt(this.getBuildId());
+        output.writeInt(this.getTeamLevel());
+        output.writeInt(this.getTeamExp());
+        output.writeInt(this.getNextLevelExp());
+        output.writeInt(this.getCharHp());
+        output.writeInt(this.getBattleTime());
+        output.writeInt(this.getBattleCount());
+        
+        writeIntList(output, this.getCharIds());
+        
+        output.writeByte(this.getChars().size());
+        for (var character : this.getChars()) {
+            writeBytes(output, character.toByteArray());
+        }
+        
+        output.writeByte(this.getDiscs().size());
+        for (var disc : this.getDiscs()) {
+            writeBytes(output, disc.toByteArray());
+        }
+        
+        // Cases
+        output.writeInt(this.getLastCaseId());
+        output.writeInt(this.getPendingPotentialCases());
+        output.writeShort(this.getCases().size());
+        
+        for (var towerCase : this.getCases()) {
+            towerCase.writeTo(output);
+        }
+        
+        // Bag
+        writeItemParamMap(output, this.getItems());
+        writeItemParamMap(output, this.getRes());
+        writeItemParamMap(output, this.getPotentials());
+        
+        writeIntList(output, this.getSubNoteDropList());
+    }
+    
+    private static void writeIntList(DataOutput output, IntList list) throws IOException {
+        output.writeShort(list.size());
+        
+        for (int value : list) {
+            output.writeInt(value);
+        }
+    }
+    
+    private static IntList readIntList(DataInput input) throws IOException {
+        int size = input.readUnsignedShort();
+        var list = new IntArrayList(size);
+        
+        for (int i = 0; i < size; i++) {
+            list.add(input.readInt());
+        }
+        
+        return list;
+    }
+    
+    private static void writeItemParamMap(DataOutput output, ItemParamMap map) throws IOException {
+        output.writeShort(map.size());
+        
+        for (var entry : map) {
+            output.writeInt(entry.getIntKey());
+            output.writeInt(entry.getIntValue());
+        }
+    }
+    
+    private static ItemParamMap readItemParamMap(DataInput input) throws IOException {
+        int size = input.readUnsignedShort();
+        var map = new ItemParamMap();
+        
+        for (int i = 0; i < size; i++) {
+            map.put(input.readInt(), input.readInt());
+        }
+        
+        return map;
+    }
+    
+    private static void writeBytes(DataOutput output, byte[] bytes) throws IOException {
+        output.writeShort(bytes.length);
+        output.write(bytes);
+    }
+    
+    private static byte[] readBytes(DataInput input) throws IOException {
+        var bytes = new byte[input.readUnsignedShort()];
+        input.readFully(bytes);
+        return bytes;
+    }
+    
     // Proto
     
     public StarTowerInfo toProto() {
@@ -1,5 +1,10 @@
 package emu.nebula.game.tower;
 
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import dev.morphia.query.filters.Filters;
 import emu.nebula.Nebula;
 import emu.nebula.data.GameData;
 import emu.nebula.data.resources.StarTowerGrowthNodeDef;
@@ -19,19 +24,47 @@ import lombok.Getter;
 public class StarTowerManager extends PlayerManager {
     // Tower game instance
     private StarTowerGame game;
+    private StarTowerCheckpoint checkpoint;
+    private boolean checkpointLoaded;
     
-    // Tower builds
+    // Tower builds, only the most recently viewed builds keep their details loaded
     private Long2ObjectMap<StarTowerBuild> builds;
+    private Map<Long, StarTowerBuild> detailedBuilds;
     private StarTowerBuild lastBuild;
     
+    private static final int MAX_DETAILED_BUILDS = 10;
+    
     public StarTowerManager(Player player) {
         super(player);
+        
+        this.detailedBuilds = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, StarTowerBuild> eldest) {
+                if (this.size() > MAX_DETAILED_BUILDS) {
+                    eldest.getValue().unloadDetails();
+                    return true;
+                }
+                
+                return false;
+            }
+        };
     }
     
     public PlayerProgress getProgress() {
         return this.getPlayer().getProgress();
     }
     
+    public StarTowerGame getGame() {
+        // Restore game from the last checkpoint
+        if (this.game == null && !this.checkpointLoaded) {
+            this.loadCheckpoint();
+        }
+        
+        return this.game;
+    }
+    
     // Growth nodes (talents/research)
     
     public boolean hasGrowthNode(int id) {
@@ -80,12 +113,9 @@ public class StarTowerManager extends PlayerManager {
         this.getProgress().setStarTowerGrowthNode(data.getGroup(), data.getNodeId());
         
         // Save to database
-        Nebula.getGameDatabase().update(
-            this.getProgress(),
-            this.getPlayerUid(),
-            "starTowerGrowth",
-            this.getProgress().getStarTowerGrowth()
-        );
+        Nebula.getGameDatabase().update(this.getProgress(), this.getPlayerUid())
+            .set("starTowerGrowth", this.getProgress().getStarTowerGrowth())
+            .execute();
         
         // Remove items
         return getPlayer().getInventory().removeItem(data.getItemId1(), data.getItemQty1());
@@ -126,12 +156,9 @@ public class StarTowerManager extends PlayerManager {
         // Save to database if any nodes were unlocked
         if (unlocked.size() > 0) {
             // Save to database
-            Nebula.getGameDatabase().update(
-                this.getProgress(),
-                this.getPlayerUid(),
-                "starTowerGrowth",
-                this.getProgress().getStarTowerGrowth()
-            );
+            Nebula.getGameDatabase().update(this.getProgress(), this.getPlayerUid())
+                .set("starTowerGrowth", this.getProgress().getStarTowerGrowth())
+                .execute();
         }
         
         // Set unlocked list
@@ -159,6 +186,26 @@ public class StarTowerManager extends PlayerManager {
         return this.getBuilds().containsKey(id);
     }
     
+    /**
+     * Returns the build with its potentials and sub note skills loaded
+     */
+    public StarTowerBuild getBuildDetails(long id) {
+        var build = this.getBuildById(id);
+        if (build == null) {
+            return null;
+        }
+        
+        // Load details from the database
+        if (!build.hasDetails()) {
+            build.loadDetails();
+        }
+        
+        // Mark as recently viewed
+        this.detailedBuilds.put(id, build);
+        
+        return build;
+    }
+    
     public PlayerChangeInfo apply(StarTowerApplyReq req) {
         // Sanity checks
         var data = GameData.getStarTowerDataTable().get(req.getId());
@@ -203,8 +250,12 @@ public class StarTowerManager extends PlayerManager {
             }
         }
         
+        // Remove any unfinished game
+        this.deleteCheckpoint();
+        
         // Create game
         this.game = new StarTowerGame(this, data, formation, req);
+        this.saveCheckpoint();
         
         // Trigger quest
         this.getPlayer().triggerQuest(QuestCondType.TowerEnterFloor, 1);
@@ -215,7 +266,7 @@ public class StarTowerManager extends PlayerManager {
 
     public StarTowerGame endGame() {
         // Cache instance
-        var game = this.game;
+        var game = this.getGame();
         
         if (game != null) {
             // Set last build
@@ -223,6 +274,7 @@ public class StarTowerManager extends PlayerManager {
             
             // Clear instance
             this.game = null;
+            this.deleteCheckpoint();
         }
         
         return game;
@@ -266,6 +318,7 @@ public class StarTowerManager extends PlayerManager {
         
         // Add to builds
         this.getBuilds().put(build.getUid(), build);
+        this.detailedBuilds.put((long) build.getUid(), build);
         
         // Save build to database
         build.save();
@@ -287,6 +340,8 @@ public class StarTowerManager extends PlayerManager {
             return change;
         }
         
+        this.detailedBuilds.remove(buildId);
+        
         // Delete
         build.delete();
         
@@ -297,13 +352,69 @@ public class StarTowerManager extends PlayerManager {
         return change;
     }
     
+    // Checkpoint
+    
+    /**
+     * Saves the current state of the game, called when the player enters a new room
+     */
+    public void saveCheckpoint() {
+        if (this.game == null) {
+            return;
+        }
+        
+        try {
+            this.checkpoint = new StarTowerCheckpoint(this.game);
+            this.checkpoint.save();
+        } catch (IOException e) {
+            Nebula.getLogger().error("Unable to save star tower checkpoint for player " + this.getPlayerUid() + ": ", e);
+        }
+    }
+    
+    private void loadCheckpoint() {
+        this.checkpointLoaded = true;
+        this.checkpoint = Nebula.getGameDatabase().getObjectByUid(StarTowerCheckpoint.class, this.getPlayerUid());
+        
+        if (this.checkpoint == null) {
+            return;
+        }
+        
+        try {
+            this.game = this.checkpoint.restore(this);
+        } catch (IOException e) {
+            Nebula.getLogger().error("Unable to restore star tower checkpoint for player " + this.getPlayerUid() + ": ", e);
+        }
+        
+        // Remove checkpoints that can not be used anymore
+        if (this.game == null) {
+            this.deleteCheckpoint();
+        }
+    }
+    
+    private void deleteCheckpoint() {
+        this.checkpointLoaded = true;
+        
+        if (this.checkpoint != null) {
+            this.checkpoint.delete();
+            this.checkpoint = null;
+        }
+    }
+    
     // Database
     
     public void loadFromDatabase() {
         this.builds = new Long2ObjectOpenHashMap<>();
         
-        Nebula.getGameDatabase().getObjects(StarTowerBuild.class, "playerUid", getPlayerUid()).forEach(build -> {
-            this.builds.put(build.getUid(), build);
-        });
+        // Only load the brief info of each build
+        var builds = Nebula.getGameDatabase().getDatastore()
+                .find(StarTowerBuild.class)
+                .filter(Filters.eq("playerUid", getPlayerUid()))
+                .iterator(StarTowerBuild.BRIEF_OPTIONS);
+        
+        try (builds) {
+            while (builds.hasNext()) {
+                var build = builds.next();
+                this.builds.put(build.getUid(), build);
+            }
+        }
     }
 }
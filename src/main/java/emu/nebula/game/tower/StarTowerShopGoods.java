@@ -1,5 +1,9 @@
 package emu.nebula.game.tower;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
 import dev.morphia.annotations.Entity;
 import lombok.Getter;
 
@@ -17,8 +21,22 @@ public class StarTowerShopGoods {
         this.price = price;
     }
 
+    public StarTowerShopGoods(DataInput input) throws IOException {
+        this.type = input.readInt();
+        this.goodsId = input.readInt();
+        this.price = input.readInt();
+        this.sold = input.readBoolean();
+    }
+
     public void markAsSold() {
         this.sold = true;
     }
     
+    public void writeTo(DataOutput output) throws IOException {
+        output.writeInt(this.getType());
+        output.writeInt(this.getGoodsId());
+        output.writeInt(this.getPrice());
+        output.writeBoolean(this.isSold());
+    }
+    
 }
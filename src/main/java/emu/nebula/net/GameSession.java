@@ -1,7 +1,11 @@
 package emu.nebula.net;
 
 import java.security.MessageDigest;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
 
 import org.bouncycastle.crypto.params.ECPrivateKeyParameters;
 import org.bouncycastle.crypto.params.ECPublicKeyParameters;
@@ -23,7 +27,7 @@ import us.hebi.quickbuf.RepeatedByte;
 public class GameSession {
     private String token;
     private Account account;
-    private Player player;
+    private volatile Player player;
 
     // Crypto
     private int encryptMethod; // 0 = gcm, 1 = chacha20
@@ -31,43 +35,75 @@ public class GameSession {
     private byte[] serverPublicKey;
     private byte[] serverPrivateKey;
     private byte[] key;
+    private SessionCrypto crypto;
 
     // Session cleanup
-    private boolean remove;
-    private long lastActiveTime;
+    private volatile boolean remove;
+    private volatile long lastActiveTime;
+
+    // Not synchronized, as attaching and clearing players does database I/O which would pin virtual threads
+    private final ReentrantLock playerLock = new ReentrantLock();
 
     public GameSession() {
         this.updateLastActiveTime();
     }
 
-    public synchronized Player getPlayer() {
+    public Player getPlayer() {
         return this.player;
     }
 
-    public synchronized void setPlayer(Player player) {
-        this.player = player;
-        this.player.setSession(this);
-        this.player.onLogin();
+    public void setPlayer(Player player) {
+        // Run on the player's executor, so that we dont race with requests from an older session of this player
+        player.getExecutor().submit(() -> {
+            this.attachPlayer(player);
+            return null;
+        }).join();
     }
 
-    public synchronized void clearPlayer() {
-        // Sanity check
-        if (this.player == null) {
-            return;
+    private void attachPlayer(Player player) {
+        this.playerLock.lock();
+
+        try {
+            this.player = player;
+            this.player.setSession(this);
+            this.player.onLogin();
+        } finally {
+            this.playerLock.unlock();
         }
+    }
 
-        // Clear player
-        var player = this.player;
-        this.player = null;
+    public void clearPlayer() {
+        Player player = null;
+
+        this.playerLock.lock();
+
+        try {
+            // Sanity check
+            if (this.player == null) {
+                return;
+            }
 
-        // Remove session from player
-        player.removeSession();
+            // Clear player
+            player = this.player;
+            this.player = null;
 
-        // Set remove flag
-        this.remove = true;
+            // Remove session from player
+            player.removeSession();
+
+            // Set remove flag
+            this.remove = true;
+        } finally {
+            this.playerLock.unlock();
+        }
+
+        // Write any queued player data to the database
+        Nebula.getGameDatabase().flush(player.getUid());
+
+        // Remove session from game context
+        Nebula.getGameContext().removeSession(this);
     }
 
-    public synchronized boolean hasPlayer() {
+    public boolean hasPlayer() {
         return this.player != null;
     }
 
@@ -87,6 +123,7 @@ public class GameSession {
     public void calculateKey() {
         this.key = AeadHelper.generateKey(clientPublicKey, serverPublicKey, serverPrivateKey);
         this.encryptMethod = Utils.randomRange(0, 1);
+        this.crypto = new SessionCrypto(this.key, this.encryptMethod);
     }
 
     public String generateToken() {
@@ -119,8 +156,6 @@ public class GameSession {
             return false;
         }
 
-        // Note: We should cache players in case multiple sessions try to login to the
-        // same player at the time
         // Get player by account
         var player = Nebula.getGameContext().getPlayerModule().loadPlayer(account);
 
@@ -152,7 +187,7 @@ public class GameSession {
 
             // Chain next packages for player
             if (this.getPlayer().hasNextPackages()) {
-                this.addNextPackages(proto);
+                return PacketHelper.encodeMsg(msgId, proto, this.pollNextPackages(proto));
             }
         }
 
@@ -160,6 +195,25 @@ public class GameSession {
         return PacketHelper.encodeMsg(msgId, proto);
     }
 
+    /**
+     * Encodes the message with pre-encoded proto fields appended to it
+     */
+    public byte[] encodeMsg(int msgId, ProtoMessage<?> proto, byte[] fields) {
+        // Check if we have any packages to send to the client
+        if (this.getPlayer() != null) {
+            // Check if player should add any packages
+            this.checkPlayerStates();
+
+            // Chain next packages for player
+            if (this.getPlayer().hasNextPackages()) {
+                return PacketHelper.encodeMsg(msgId, proto, fields, this.pollNextPackages(proto));
+            }
+        }
+
+        // Encode to message like normal
+        return PacketHelper.encodeMsg(msgId, proto, fields);
+    }
+
     public byte[] encodeMsg(int msgId) {
         // Check if we have any packages to send to the client
         if (this.getPlayer() != null) {
@@ -172,7 +226,7 @@ public class GameSession {
                 var proto = Nil.newInstance();
 
                 // Encode proto with next packages
-                return this.encodeMsg(msgId, this.addNextPackages(proto));
+                return PacketHelper.encodeMsg(msgId, proto, this.pollNextPackages(proto));
             }
         }
 
@@ -207,46 +261,30 @@ public class GameSession {
         }
     }
 
-    private ProtoMessage<?> addNextPackages(ProtoMessage<?> proto) {
+    /**
+     * Removes the next packages that can be chained behind this proto from the player. Returned in chain order.
+     */
+    private List<NetMsgPacket> pollNextPackages(ProtoMessage<?> proto) {
         // Sanity check and make sure proto has a "nextPackage" field
         if (!PacketHelper.hasNextPackageMethod(proto)) {
-            return proto;
+            return List.of();
         }
 
-        // Set next package
-        if (this.getPlayer().getNextPackages().size() > 0) {
-            // Set current package
-            NetMsgPacket curPacket = null;
-
-            // Chain link next packages
-            while (getPlayer().getNextPackages().size() > 0) {
-                // Make sure the current packet has a nextPackage field
-                if (curPacket != null && !PacketHelper.hasNextPackageMethod(curPacket.getProto())) {
-                    break;
-                }
-
-                // Get current package
-                var nextPacket = getPlayer().getNextPackages().pop();
-
-                // Set cur packet if its null
-                if (curPacket == null) {
-                    curPacket = nextPacket;
-                    continue;
-                }
+        // Get packages
+        var packages = this.getPlayer().getNextPackages();
+        var chain = new ArrayList<NetMsgPacket>(packages.size());
 
-                // Set next package
-                PacketHelper.setNextPackage(nextPacket.getProto(), curPacket.toByteArray());
+        // The top package is the end of the chain, so it does not need a nextPackage field
+        chain.add(packages.pop());
 
-                // Update next packet
-                curPacket = nextPacket;
-            }
-
-            // Set next package of current proto via reflection
-            if (curPacket != null) {
-                PacketHelper.setNextPackage(proto, curPacket.toByteArray());
-            }
+        // Every package in front of it holds the rest of the chain
+        while (!packages.isEmpty() && PacketHelper.hasNextPackageMethod(packages.peek().getProto())) {
+            chain.add(packages.pop());
         }
 
-        return proto;
+        // Reverse so that the chain starts with the oldest package
+        Collections.reverse(chain);
+
+        return chain;
     }
 }
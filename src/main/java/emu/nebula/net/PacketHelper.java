@@ -1,44 +1,33 @@
 package emu.nebula.net;
 
-import org.reflections.Reflections;
+import java.io.IOException;
+import java.util.List;
 
-import com.esotericsoftware.reflectasm.MethodAccess;
-
-import emu.nebula.Nebula;
-import it.unimi.dsi.fastutil.objects.Object2IntMap;
-import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
 import lombok.SneakyThrows;
 import us.hebi.quickbuf.ProtoMessage;
 import us.hebi.quickbuf.ProtoSink;
 
 public class PacketHelper {
-    private static Object2IntMap<Class<?>> methodIndexCache = new Object2IntOpenHashMap<>();
-    
-    // Next packages
+    // Raw tag of the "NextPackage" bytes field (field 2047) that protos use to chain packets
+    private static final short NEXT_PACKAGE_TAG = (short) 32762;
     
-    public static void cacheProtos() {
-        var classes = new Reflections(Nebula.class.getPackage().getName()).getSubTypesOf(ProtoMessage.class);
-        
-        for (var cls : classes) {
+    // Checked the first time a proto class is used
+    private static final ClassValue<Boolean> nextPackageFields = new ClassValue<>() {
+        @Override
+        protected Boolean computeValue(Class<?> type) {
             try {
-                var access = MethodAccess.get(cls);
-                int index = access.getIndex("setNextPackage");
-                methodIndexCache.put(cls, index);
+                type.getMethod("setNextPackage", byte[].class);
+                return true;
             } catch (Exception e) {
-                
+                return false;
             }
         }
-        
-        Nebula.getLogger().info("Cached " + methodIndexCache.size() + " proto methods.");
-    }
+    };
     
-    public static boolean hasNextPackageMethod(Object obj) {
-        return methodIndexCache.containsKey(obj.getClass());
-    }
+    // Next packages
     
-    public static void setNextPackage(ProtoMessage<?> proto, byte[] data) {
-        int index = methodIndexCache.getInt(proto.getClass());
-        MethodAccess.get(proto.getClass()).invoke(proto, index, data);
+    public static boolean hasNextPackageMethod(Object obj) {
+        return nextPackageFields.get(obj.getClass());
     }
     
     // Packet encoding
@@ -79,6 +68,77 @@ public class PacketHelper {
         return data;
     }
     
+    /**
+     * Encodes the message with the packets chained behind it through their "NextPackage" fields. The size of each link
+     * is calculated from the end of the chain, then the whole chain is written front to back into a single array.
+     */
+    public static byte[] encodeMsg(int msgId, ProtoMessage<?> proto, List<NetMsgPacket> chain) {
+        return encodeMsg(msgId, proto, null, chain);
+    }
+    
+    /**
+     * Encodes the message with pre-encoded proto fields appended to it. Lets handlers reuse the encoded bytes of
+     * fields that are the same for every player.
+     */
+    public static byte[] encodeMsg(int msgId, ProtoMessage<?> proto, byte[] fields) {
+        return encodeMsg(msgId, proto, fields, List.of());
+    }
+    
+    @SneakyThrows
+    public static byte[] encodeMsg(int msgId, ProtoMessage<?> proto, byte[] fields, List<NetMsgPacket> chain) {
+        // Calculate link sizes, starting from the last packet
+        int[] sizes = new int[chain.size()];
+        int nextSize = 0;
+        
+        for (int i = chain.size() - 1; i >= 0; i--) {
+            nextSize = 2 + chain.get(i).getProto().getSerializedSize() + computeNextPackageSize(nextSize);
+            sizes[i] = nextSize;
+        }
+        
+        // Create data array
+        int size = 2 + proto.getSerializedSize() + (fields != null ? fields.length : 0) + computeNextPackageSize(nextSize);
+        byte[] data = new byte[size];
+        
+        // Create proto sink
+        var output = ProtoSink.newInstance(data, 0, size);
+        
+        // Write message and chained packets
+        writeLink(output, msgId, proto, fields, nextSize);
+        
+        for (int i = 0; i < chain.size(); i++) {
+            var packet = chain.get(i);
+            writeLink(output, packet.getMsgId(), packet.getProto(), null, i + 1 < sizes.length ? sizes[i + 1] : 0);
+        }
+        
+        // Complete
+        return data;
+    }
+    
+    private static int computeNextPackageSize(int size) {
+        return size > 0 ? 2 + ProtoSink.computeUInt32SizeNoTag(size) + size : 0;
+    }
+    
+    private static void writeLink(ProtoSink output, int msgId, ProtoMessage<?> proto, byte[] fields, int nextSize) throws IOException {
+        // Encode msgId
+        short id = (short) msgId;
+        output.writeRawByte((byte) (id >> 8));
+        output.writeRawByte((byte) id);
+        
+        // Write proto
+        proto.writeTo(output);
+        
+        // Write pre-encoded fields
+        if (fields != null) {
+            output.writeRawBytes(fields);
+        }
+        
+        // Write next package header, the next link is written right after it as the field's data
+        if (nextSize > 0) {
+            output.writeRawLittleEndian16(NEXT_PACKAGE_TAG);
+            output.writeUInt32NoTag(nextSize);
+        }
+    }
+    
     public static byte[] encodeMsg(int msgId) {
         // Create data array
         byte[] data = new byte[2];
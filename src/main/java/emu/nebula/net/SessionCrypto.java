@@ -0,0 +1,67 @@
+package emu.nebula.net;
+
+import java.nio.ByteBuffer;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+import emu.nebula.util.AeadHelper;
+import lombok.AccessLevel;
+import lombok.Getter;
+
+/**
+ * Crypto context for a session. The key spec is created once when the session key is calculated, and each session
+ * keeps its own ciphers so that they are reused no matter which thread handles the request.
+ */
+@Getter
+public class SessionCrypto {
+    private final int method; // 0 = gcm, 1 = chacha20
+    private final SecretKeySpec keySpec;
+    
+    // Ciphers are not thread safe, requests of a session may be decrypted while the previous response is encrypted
+    @Getter(AccessLevel.NONE)
+    private final Object encryptLock;
+    @Getter(AccessLevel.NONE)
+    private final Object decryptLock;
+    @Getter(AccessLevel.NONE)
+    private Cipher encryptCipher;
+    @Getter(AccessLevel.NONE)
+    private Cipher decryptCipher;
+    
+    public SessionCrypto(byte[] key, int method) {
+        this.method = method;
+        this.keySpec = AeadHelper.createKeySpec(key, method);
+        this.encryptLock = new Object();
+        this.decryptLock = new Object();
+        this.encryptCipher = AeadHelper.createCipher(method);
+        this.decryptCipher = AeadHelper.createCipher(method);
+    }
+    
+    /**
+     * Decrypts the message in place. The returned buffer is a view of the decrypted data inside the message array.
+     */
+    public ByteBuffer decrypt(byte[] message) throws Exception {
+        synchronized (this.decryptLock) {
+            // Decrypt - Cipher.doFinal is copy-safe so we can use the message as the output
+            this.decryptCipher = AeadHelper.initCipher(this.decryptCipher, Cipher.DECRYPT_MODE, this.keySpec, this.method, message, 0);
+            int length = this.decryptCipher.doFinal(message, AeadHelper.IV_LENGTH, message.length - AeadHelper.IV_LENGTH, message, AeadHelper.IV_LENGTH);
+            
+            return ByteBuffer.wrap(message, AeadHelper.IV_LENGTH, length);
+        }
+    }
+    
+    /**
+     * Encrypts the data. Output is the iv followed by the encrypted data and tag.
+     */
+    public byte[] encrypt(byte[] data) throws Exception {
+        byte[] output = AeadHelper.createOutput(data.length);
+        
+        synchronized (this.encryptLock) {
+            // Encrypt directly into the output array
+            this.encryptCipher = AeadHelper.initCipher(this.encryptCipher, Cipher.ENCRYPT_MODE, this.keySpec, this.method, output, 0);
+            this.encryptCipher.doFinal(data, 0, data.length, output, AeadHelper.IV_LENGTH);
+        }
+        
+        return output;
+    }
+}
@@ -16,10 +16,10 @@ public class HandlerFriendRecommendationGetReq extends NetHandler {
         var rsp = FriendRecommendationGetResp.newInstance();
         
         // Get players
-        var players = Nebula.getGameContext().getPlayerModule().getRandomPlayerList(session.getPlayer());
+        var profiles = Nebula.getGameContext().getFriendRecommendationModule().getRecommendations(session.getPlayer());
         
-        for (var player : players) {
-            rsp.addFriends(player.getFriendProto());
+        for (var profile : profiles) {
+            rsp.addFriends(profile.toProto());
         }
         
         // Encode and send
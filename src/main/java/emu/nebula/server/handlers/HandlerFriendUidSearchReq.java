@@ -17,8 +17,8 @@ public class HandlerFriendUidSearchReq extends NetHandler {
         var req = FriendUIdSearchReq.parseFrom(message);
         int uid = (int) req.getId();
         
-        // Get target player
-        var target = Nebula.getGameContext().getPlayerModule().getPlayer(uid);
+        // Get target player profile
+        var target = Nebula.getGameContext().getPlayerModule().getProfileCache().getProfile(uid);
         
         if (target == null) {
             return session.encodeMsg(NetMsgId.friend_uid_search_failed_ack);
@@ -26,7 +26,7 @@ public class HandlerFriendUidSearchReq extends NetHandler {
         
         // Build response
         var rsp = FriendUIdSearchResp.newInstance()
-                .setFriend(target.getFriendProto());
+                .setFriend(target.toProto());
         
         // Encode and send
         return session.encodeMsg(NetMsgId.friend_uid_search_succeed_ack, rsp);
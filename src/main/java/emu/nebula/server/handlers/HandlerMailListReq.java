@@ -11,10 +11,15 @@ public class HandlerMailListReq extends NetHandler {
 
     @Override
     public byte[] handle(GameSession session, byte[] message) throws Exception {
+        // Receive global mails
+        var mailbox = session.getPlayer().getMailbox();
+        mailbox.checkGlobalMail();
+        
         // Build mail list proto
         var rsp = Mails.newInstance();
+        var mails = mailbox.getVisibleMails();
         
-        for (var mail : session.getPlayer().getMailbox()) {
+        for (var mail : mails) {
             rsp.addList(mail.toProto());
         }
         
@@ -20,7 +20,7 @@ public class HandlerPlayerDataReq extends NetHandler {
         }
         
         // Encode player data
-        return session.encodeMsg(NetMsgId.player_data_succeed_ack, session.getPlayer().toProto());
+        return session.getPlayer().encodePlayerData(session);
     }
 
 }
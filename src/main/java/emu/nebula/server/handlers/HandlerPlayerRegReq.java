@@ -36,7 +36,7 @@ public class HandlerPlayerRegReq extends NetHandler {
         session.setPlayer(player);
         
         // Encode player data
-        return session.encodeMsg(NetMsgId.player_data_succeed_ack, session.getPlayer().toProto());
+        return session.getPlayer().encodePlayerData(session);
     }
 
 }
@@ -12,35 +12,22 @@ public class HandlerScoreBossRankReq extends NetHandler {
 
     @Override
     public byte[] handle(GameSession session, byte[] message) throws Exception {
+        // Get leaderboard
+        var leaderboard = Nebula.getGameContext().getScoreBossModule();
+        
         // Build response
         var rsp = ScoreBossRankInfo.newInstance()
                 .setLastRefreshTime(Nebula.getCurrentTime());
         
         // Get self
-        var self = session.getPlayer().getScoreBossManager().getRanking();
+        var self = leaderboard.getSelf(session.getPlayer().getUid());
         
         if (self != null) {
-            rsp.setSelf(self.toProto());
+            rsp.setSelf(self);
         }
         
-        // Get ranking
-        var ranking = Nebula.getGameContext().getScoreBossModule().getRanking();
-        
-        for (var entry : ranking) {
-            // Check self
-            if (self != null && self.getPlayerUid() == entry.getId()) {
-                rsp.getMutableSelf().setRank(entry.getRank());
-            }
-            
-            // Add to ranking
-            rsp.addRank(entry);
-        }
-        
-        // Set total
-        rsp.setTotal(ranking.size());
-        
-        // Encode and send
-        return session.encodeMsg(NetMsgId.score_boss_rank_succeed_ack, rsp);
+        // Encode and send, the top ranking and total are shared by all players
+        return session.encodeMsg(NetMsgId.score_boss_rank_succeed_ack, rsp, leaderboard.getEncodedTop());
     }
 
 }
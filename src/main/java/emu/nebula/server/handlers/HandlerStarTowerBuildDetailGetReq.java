@@ -17,7 +17,7 @@ public class HandlerStarTowerBuildDetailGetReq extends NetHandler {
         
         // Get build
         int buildId = (int) req.getBuildId();
-        var build = session.getPlayer().getStarTowerManager().getBuilds().get(buildId);
+        var build = session.getPlayer().getStarTowerManager().getBuildDetails(buildId);
         
         if (build == null) {
             return session.encodeMsg(NetMsgId.star_tower_build_detail_get_failed_ack);
@@ -1,11 +1,13 @@
 package emu.nebula.server.routes;
 
 import java.lang.reflect.Field;
+import java.util.Arrays;
 import java.util.Set;
 
 import org.reflections.Reflections;
 
 import emu.nebula.Nebula;
+import emu.nebula.data.GameData;
 import emu.nebula.game.GameContext;
 import emu.nebula.net.*;
 import emu.nebula.util.AeadHelper;
@@ -37,8 +39,7 @@ public class AgentZoneHandler implements Handler {
         GameSession session = null;
         
         byte[] sessionKey = AeadHelper.serverGarbleKey;
-        boolean hasKey3 = false;
-        int encryptMethod = 0;
+        SessionCrypto crypto = null;
         
         // Get token
         String token = ctx.header("X-Token");
@@ -52,16 +53,14 @@ public class AgentZoneHandler implements Handler {
             session = getGameContext().getSessionByToken(token);
             
             // Uh oh - session not found
-            if (session == null || session.getKey() == null) {
+            if (session == null || session.getCrypto() == null) {
                 ctx.status(500);
                 ctx.result("");
                 return;
             }
             
             // Set key
-            sessionKey = session.getKey();
-            encryptMethod = session.getEncryptMethod();
-            hasKey3 = true;
+            crypto = session.getCrypto();
         }
         
         // Parse request
@@ -72,6 +71,7 @@ public class AgentZoneHandler implements Handler {
             // Get message
             byte[] message = ctx.bodyAsBytes();
             int offset = 0;
+            int length = 0;
             
             // Sanity for malformed packets
             if (message.length <= 12) {
@@ -81,20 +81,22 @@ public class AgentZoneHandler implements Handler {
             }
             
             // Decrypt message
-            if (hasKey3) {
-                message = AeadHelper.decrypt(message, sessionKey, encryptMethod);
-                offset = 10;
+            if (crypto != null) {
+                // Decrypted in place, so the data is read straight out of the request body
+                var buffer = crypto.decrypt(message);
+                offset = buffer.position() + 10;
+                length = buffer.limit();
             } else {
                 message = AeadHelper.decryptBasic(message, sessionKey);
                 message = AeadHelper.decryptGCM(message, sessionKey);
+                length = message.length;
             }
             
             // Get message id
             msgId = (message[offset++] << 8) | (message[offset++] & 0xff);
             
             // Set data
-            data = new byte[message.length - offset];
-            System.arraycopy(message, offset, data, 0, data.length);
+            data = Arrays.copyOfRange(message, offset, length);
             
             // Log
             if (Nebula.getConfig().getLogOptions().packets) {
@@ -116,6 +118,7 @@ public class AgentZoneHandler implements Handler {
         // Handle packet
         NetHandler handler = this.handlers.get(msgId);
         byte[] result = null;
+        boolean async = false;
     
         try {
             if (handler == null) {
@@ -132,38 +135,80 @@ public class AgentZoneHandler implements Handler {
                 return;
             }
             
-            // Handle data
-            result = handler.handle(session, data);
+            // Handle data - requests for a player are run on the player's executor one at a time
+            var player = session != null ? session.getPlayer() : null;
+            
+            // Requests use the same game data until they are finished, even if it gets reloaded while they are running
+            var generation = GameData.acquireGeneration();
+            final var playerSession = session;
+            final var message = data;
+            
+            if (player != null) {
+                // Dont block the http thread while the request waits for the player's executor
+                final var sessionCrypto = crypto;
+                async = true;
+                
+                ctx.future(() -> {
+                    return player.getExecutor()
+                        .submit(() -> GameData.callWith(generation, () -> handler.handle(playerSession, message)))
+                        .exceptionally(e -> {
+                            // Handler error
+                            e.printStackTrace();
+                            return null;
+                        })
+                        .whenComplete((bytes, e) -> generation.release())
+                        .thenAccept(bytes -> this.sendResult(ctx, bytes, sessionCrypto, sessionKey));
+                });
+            } else {
+                try {
+                    result = GameData.callWith(generation, () -> handler.handle(playerSession, message));
+                } finally {
+                    generation.release();
+                }
+            }
         } catch (Exception e) {
             // Handler error
             e.printStackTrace();
         } finally {
-            // Send result
-            if (result == null) {
-                ctx.status(500);
-                ctx.result(EMPTY_BYTES);
-                return;
+            // Send result, async requests send theirs once they are finished
+            if (!async) {
+                this.sendResult(ctx, result, crypto, sessionKey);
             }
-            
-            // Log
-            if (Nebula.getConfig().getLogOptions().packets) {
-                this.logSend(result);
-            }
-            
-            // Encrypt
-            if (hasKey3) {
-                result = AeadHelper.encrypt(result, sessionKey, encryptMethod);
+        }
+    }
+    
+    private void sendResult(Context ctx, byte[] result, SessionCrypto crypto, byte[] sessionKey) {
+        if (result == null) {
+            ctx.status(500);
+            ctx.result(EMPTY_BYTES);
+            return;
+        }
+        
+        // Log
+        if (Nebula.getConfig().getLogOptions().packets) {
+            this.logSend(result);
+        }
+        
+        // Encrypt
+        try {
+            if (crypto != null) {
+                result = crypto.encrypt(result);
             } else {
                 result = AeadHelper.encryptGCM(result, sessionKey);
                 result = AeadHelper.encryptBasic(result, sessionKey);
             }
-            
-            // Send to client
-            ctx.status(200);
-            ctx.result(result);
-            
-            ctx.res().setHeader("Content-Type", null);
+        } catch (Exception e) {
+            e.printStackTrace();
+            ctx.status(500);
+            ctx.result(EMPTY_BYTES);
+            return;
         }
+        
+        // Send to client
+        ctx.status(200);
+        ctx.result(result);
+        
+        ctx.res().setHeader("Content-Type", null);
     }
     
     // Loggers
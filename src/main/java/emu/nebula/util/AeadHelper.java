@@ -1,7 +1,9 @@
 package emu.nebula.util;
 
 import java.math.BigInteger;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.security.InvalidKeyException;
 import java.security.SecureRandom;
 
 import javax.crypto.Cipher;
@@ -24,12 +26,7 @@ import it.unimi.dsi.fastutil.objects.Object2ObjectOpenHashMap;
 
 // Official Name: AeadTool
 public class AeadHelper {
-    private static final ThreadLocal<SecureRandom> random = new ThreadLocal<>() {
-        @Override
-        protected SecureRandom initialValue() {
-            return new SecureRandom();
-        }
-    };
+    private static final SecureRandom random = new SecureRandom();
     
     public static byte[] serverGarbleKey = null;
     public static byte[] serverMetaKey = null;
@@ -61,7 +58,7 @@ public class AeadHelper {
     
     public static byte[] generateBytes(int size) {
         byte[] iv = new byte[size];
-        random.get().nextBytes(iv);
+        random.nextBytes(iv);
         return iv; 
     }
     
@@ -123,86 +120,106 @@ public class AeadHelper {
         return cipher.doFinal(data);
     }
     
-    // AES GCM
+    // AEAD
     
-    public static byte[] encryptGCM(byte[] messageData, byte[] key) throws Exception {
-        byte[] iv = generateBytes(12);
+    public static final int IV_LENGTH = 12;
+    public static final int TAG_LENGTH = 16;
+    
+    public static Cipher createCipher(int method) {
+        String transformation = method == 1 ? "ChaCha20-Poly1305/None/NoPadding" : "AES/GCM/NoPadding";
         
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        try {
+            return Cipher.getInstance(transformation);
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to create cipher " + transformation, e);
+        }
+    }
+    
+    public static SecretKeySpec createKeySpec(byte[] key, int method) {
+        return new SecretKeySpec(key, method == 1 ? "ChaCha20" : "AES");
+    }
+    
+    /**
+     * Initializes the cipher with the iv at this offset, which is also used as the aad. Returns the cipher that was
+     * initialized, which is a new one if a chacha20 cipher refused the iv.
+     */
+    public static Cipher initCipher(Cipher cipher, int mode, SecretKeySpec key, int method, byte[] iv, int ivOffset) throws Exception {
+        if (method == 1) {
+            var params = new IvParameterSpec(iv, ivOffset, IV_LENGTH);
+            
+            try {
+                cipher.init(mode, key, params);
+            } catch (InvalidKeyException e) {
+                // Chacha20 refuses to be initialized with the same key and nonce twice in a row (a resent request), so use a new cipher
+                cipher = createCipher(method);
+                cipher.init(mode, key, params);
+            }
+        } else {
+            cipher.init(mode, key, new GCMParameterSpec(TAG_LENGTH * 8, iv, ivOffset, IV_LENGTH));
+        }
         
-        cipher.init(
-            Cipher.ENCRYPT_MODE, 
-            new SecretKeySpec(key, "AES"), 
-            new GCMParameterSpec(128, iv)
-        );
-        cipher.updateAAD(iv);
-
-        byte[] encrypted = cipher.doFinal(messageData);
-        byte[] data = new byte[encrypted.length + iv.length];
+        cipher.updateAAD(iv, ivOffset, IV_LENGTH);
+        return cipher;
+    }
+    
+    /**
+     * Creates the output array for encrypting this many bytes, with a random iv at the start of it
+     */
+    public static byte[] createOutput(int length) {
+        byte[] data = new byte[IV_LENGTH + length + TAG_LENGTH];
+        byte[] iv = generateBytes(IV_LENGTH);
+        System.arraycopy(iv, 0, data, 0, IV_LENGTH);
+        return data;
+    }
+    
+    /**
+     * Encrypts the data with a new cipher. Output is the iv followed by the encrypted data and tag.
+     */
+    public static byte[] encrypt(byte[] messageData, int offset, int length, SecretKeySpec key, int method) throws Exception {
+        byte[] data = createOutput(length);
         
-        System.arraycopy(iv, 0, data, 0, iv.length);
-        System.arraycopy(encrypted, 0, data, iv.length, encrypted.length);
+        // Encrypt directly into the output array
+        var cipher = initCipher(createCipher(method), Cipher.ENCRYPT_MODE, key, method, data, 0);
+        cipher.doFinal(messageData, offset, length, data, IV_LENGTH);
         
         return data;
     }
     
+    /**
+     * Decrypts the message in place with a new cipher. Returns a buffer over the decrypted data inside of the message array.
+     */
+    public static ByteBuffer decryptInPlace(byte[] messageData, SecretKeySpec key, int method) throws Exception {
+        // Decrypt - Cipher.doFinal is copy-safe so we can use the message as the output
+        var cipher = initCipher(createCipher(method), Cipher.DECRYPT_MODE, key, method, messageData, 0);
+        int length = cipher.doFinal(messageData, IV_LENGTH, messageData.length - IV_LENGTH, messageData, IV_LENGTH);
+        
+        return ByteBuffer.wrap(messageData, IV_LENGTH, length);
+    }
+    
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] data = new byte[buffer.remaining()];
+        buffer.get(data);
+        return data;
+    }
+    
+    // AES GCM
+    
+    public static byte[] encryptGCM(byte[] messageData, byte[] key) throws Exception {
+        return encrypt(messageData, 0, messageData.length, createKeySpec(key, 0), 0);
+    }
+    
     public static byte[] decryptGCM(byte[] messageData, byte[] key) throws Exception {
-        byte[] iv = new byte[12];
-        byte[] data = new byte[messageData.length - iv.length];
-        System.arraycopy(messageData, 0, iv, 0, iv.length);
-        System.arraycopy(messageData, iv.length, data, 0, data.length);
-        
-        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
-        
-        cipher.init(
-            Cipher.DECRYPT_MODE, 
-            new SecretKeySpec(key, "AES"), 
-            new GCMParameterSpec(128, iv)
-        );
-        cipher.updateAAD(iv);
-
-        return cipher.doFinal(data);
+        return toArray(decryptInPlace(messageData.clone(), createKeySpec(key, 0), 0));
     }
     
     // Chacha20
     
     public static byte[] encryptChaCha(byte[] messageData, byte[] key) throws Exception {
-        byte[] iv = generateBytes(12);
-
-        Cipher cipher = Cipher.getInstance("ChaCha20-Poly1305/None/NoPadding");
-        
-        cipher.init(
-            Cipher.ENCRYPT_MODE, 
-            new SecretKeySpec(key, "ChaCha20"),
-            new IvParameterSpec(iv)
-        );
-        cipher.updateAAD(iv);
-        
-        byte[] encrypted = cipher.doFinal(messageData);
-        byte[] data = new byte[encrypted.length + iv.length];
-        
-        System.arraycopy(iv, 0, data, 0, iv.length);
-        System.arraycopy(encrypted, 0, data, iv.length, encrypted.length);
-        
-        return data;
+        return encrypt(messageData, 0, messageData.length, createKeySpec(key, 1), 1);
     }
     
     public static byte[] decryptChaCha(byte[] messageData, byte[] key) throws Exception {
-        byte[] iv = new byte[12];
-        byte[] data = new byte[messageData.length - iv.length];
-        System.arraycopy(messageData, 0, iv, 0, iv.length);
-        System.arraycopy(messageData, iv.length, data, 0, data.length);
-
-        Cipher cipher = Cipher.getInstance("ChaCha20-Poly1305/None/NoPadding");
-        
-        cipher.init(
-            Cipher.DECRYPT_MODE, 
-            new SecretKeySpec(key, "ChaCha20"),
-            new IvParameterSpec(iv)
-        );
-        cipher.updateAAD(iv);
-        
-        return cipher.doFinal(data);
+        return toArray(decryptInPlace(messageData.clone(), createKeySpec(key, 1), 1));
     }
     
     // XOR
@@ -254,7 +271,7 @@ public class AeadHelper {
         
         var p = NISTNamedCurves.getByName("P-256");
         var domainParams = new ECDomainParameters(p.getCurve(), p.getG(), p.getN(), p.getH());
-        var genParams = new ECKeyGenerationParameters(domainParams, random.get());
+        var genParams = new ECKeyGenerationParameters(domainParams, random);
         
         generator.init(genParams);
         return generator.generateKeyPair();
@@ -0,0 +1,95 @@
+package emu.nebula.util;
+
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import emu.nebula.Nebula;
+
+/**
+ * Runs tasks one at a time in the order they were submitted, on virtual threads. Tasks submitted to different
+ * serial executors run in parallel.
+ */
+public class SerialExecutor implements Executor {
+    private static final ExecutorService VIRTUAL_THREADS = Executors.newVirtualThreadPerTaskExecutor();
+    private static final ThreadLocal<SerialExecutor> CURRENT = new ThreadLocal<>();
+
+    private final Queue<Runnable> tasks;
+    private final AtomicBoolean running;
+
+    public SerialExecutor() {
+        this.tasks = new ConcurrentLinkedQueue<>();
+        this.running = new AtomicBoolean();
+    }
+
+    /**
+     * Returns true if the current thread is running a task from this executor
+     */
+    public boolean isCurrentThread() {
+        return CURRENT.get() == this;
+    }
+
+    @Override
+    public void execute(Runnable task) {
+        this.tasks.add(task);
+        this.schedule();
+    }
+
+    /**
+     * Submits a task and returns a future with its result. If called from a task of this executor,
+     * the task is run right away, so that waiting on the future can not deadlock.
+     */
+    public <T> CompletableFuture<T> submit(Callable<T> task) {
+        var future = new CompletableFuture<T>();
+        Runnable runnable = () -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable e) {
+                future.completeExceptionally(e);
+            }
+        };
+
+        if (this.isCurrentThread()) {
+            runnable.run();
+        } else {
+            this.execute(runnable);
+        }
+
+        return future;
+    }
+
+    private void schedule() {
+        if (this.running.compareAndSet(false, true)) {
+            VIRTUAL_THREADS.execute(this::drain);
+        }
+    }
+
+    private void drain() {
+        CURRENT.set(this);
+
+        try {
+            Runnable task;
+
+            while ((task = this.tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (Throwable e) {
+                    Nebula.getLogger().error("Error running task: ", e);
+                }
+            }
+        } finally {
+            CURRENT.remove();
+            this.running.set(false);
+
+            // A task could have been added after we stopped polling
+            if (!this.tasks.isEmpty()) {
+                this.schedule();
+            }
+        }
+    }
+}
@@ -1,24 +1,57 @@
 package emu.nebula.util;
 
+import java.util.concurrent.atomic.AtomicLong;
+
+import emu.nebula.Nebula;
+
+/**
+ * 64 bit unique ids made from a millisecond timestamp, the node id of this server and a sequence number.
+ */
 public class Snowflake {
     private static final long EPOCH = 1735689600000L; // Wednesday, January 1, 2025 12:00:00 AM (GMT)
-    private static int cachedTimestamp;
-    private static byte sequence;
-
-    public synchronized static int newUid() {
-        int timestamp = (int) ((System.currentTimeMillis() - EPOCH) / 1000);
+    
+    private static final int NODE_BITS = 10;
+    private static final int SEQUENCE_BITS = 12;
+    private static final long NODE_MASK = (1L << NODE_BITS) - 1;
+    private static final long SEQUENCE_MASK = (1L << SEQUENCE_BITS) - 1;
+    
+    // Timestamp and sequence of the last id
+    private static final AtomicLong state = new AtomicLong();
 
-        if (cachedTimestamp != timestamp) {
-            sequence = 0;
-            cachedTimestamp = timestamp;
-        } else {
-            sequence++;
+    public static long newUid() {
+        while (true) {
+            long last = state.get();
+            long lastTimestamp = last >>> SEQUENCE_BITS;
+            long timestamp = Math.max(System.currentTimeMillis() - EPOCH, lastTimestamp);
+            long next;
+            
+            if (timestamp == lastTimestamp) {
+                // Same millisecond, if the sequence runs out then we borrow the next millisecond
+                next = last + 1;
+            } else {
+                next = timestamp << SEQUENCE_BITS;
+            }
+            
+            if (state.compareAndSet(last, next)) {
+                long sequence = next & SEQUENCE_MASK;
+                return ((next >>> SEQUENCE_BITS) << (NODE_BITS + SEQUENCE_BITS)) | (getNodeId() << SEQUENCE_BITS) | sequence;
+            }
         }
-
-        return (cachedTimestamp << 4) + sequence;
     }
 
-    public synchronized static int toTimestamp(int snowflake) {
-        return (snowflake >> 4) + (int) (EPOCH / 1000);
+    public static long toTimestamp(long snowflake) {
+        return ((snowflake >>> (NODE_BITS + SEQUENCE_BITS)) + EPOCH) / 1000;
+    }
+    
+    private static long getNodeId() {
+        return Nebula.getConfig().getNodeId() & NODE_MASK;
+    }
+    
+    /**
+     * Returns an id that is greater than any id made by the old 32 bit snowflake (seconds shifted by 4 bits)
+     */
+    public static int getLegacyUidLimit() {
+        long seconds = (System.currentTimeMillis() - EPOCH) / 1000;
+        return (int) Math.min((seconds + 1) << 4, Integer.MAX_VALUE / 2);
     }
 }
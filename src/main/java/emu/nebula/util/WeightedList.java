@@ -1,13 +1,24 @@
 package emu.nebula.util;
 
-import java.util.NavigableMap;
-import java.util.TreeMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ThreadLocalRandom;
+import java.util.random.RandomGenerator;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+
+/**
+ * List of weighted results. Results are drawn in constant time with Vose's alias method, the alias tables are built
+ * on the first draw after the list was changed.
+ */
 public class WeightedList<E> {
-    private final NavigableMap<Double, E> map = new TreeMap<>();
+    private final DoubleArrayList weights = new DoubleArrayList();
+    private final List<E> results = new ArrayList<>();
     private double total = 0;
 
+    // Alias tables, replaced as a whole so that draws from other threads always see complete tables
+    private volatile AliasTable table;
+
     public WeightedList() {
 
     }
@@ -15,21 +26,145 @@ public class WeightedList<E> {
     public WeightedList<E> add(double weight, E result) {
         if (weight <= 0) return this;
         total += weight;
-        map.put(total, result);
+        weights.add(weight);
+        results.add(result);
+        table = null;
         return this;
     }
 
+    public E get(int index) {
+        return results.get(index);
+    }
+
+    public double getTotalWeight() {
+        return total;
+    }
+
     public E next() {
-        double value = ThreadLocalRandom.current().nextDouble() * total;
-        return map.higherEntry(value).getValue();
+        return this.next(ThreadLocalRandom.current());
+    }
+
+    public E next(RandomGenerator random) {
+        int index = this.nextIndex(random);
+        return index >= 0 ? results.get(index) : null;
+    }
+
+    /**
+     * Returns the index of a random result, or -1 if the list is empty
+     */
+    public int nextIndex(RandomGenerator random) {
+        return this.getTable().next(random);
+    }
+
+    /**
+     * Fills the array with the indexes of random results
+     */
+    public int[] nextIndexes(RandomGenerator random, int[] indexes) {
+        var table = this.getTable();
+
+        for (int i = 0; i < indexes.length; i++) {
+            indexes[i] = table.next(random);
+        }
+
+        return indexes;
+    }
+
+    public int[] nextIndexes(RandomGenerator random, int count) {
+        return this.nextIndexes(random, new int[count]);
     }
 
     public int size() {
-        return map.size();
+        return results.size();
     }
 
     public void clear() {
-        this.map.clear();
+        this.weights.clear();
+        this.results.clear();
         this.total = 0;
+        this.table = null;
+    }
+
+    private AliasTable getTable() {
+        var table = this.table;
+
+        if (table == null) {
+            table = new AliasTable(this.weights.toDoubleArray(), this.total);
+            this.table = table;
+        }
+
+        return table;
+    }
+
+    private static class AliasTable {
+        private final double[] probability;
+        private final int[] alias;
+
+        public AliasTable(double[] weights, double total) {
+            int size = weights.length;
+
+            this.probability = new double[size];
+            this.alias = new int[size];
+
+            // Scale weights so that the average is 1
+            var scaled = new double[size];
+            var small = new int[size];
+            var large = new int[size];
+            int smallCount = 0;
+            int largeCount = 0;
+
+            for (int i = 0; i < size; i++) {
+                scaled[i] = weights[i] * size / total;
+
+                if (scaled[i] < 1.0) {
+                    small[smallCount++] = i;
+                } else {
+                    large[largeCount++] = i;
+                }
+            }
+
+            // Pair each small column with a large column that fills the rest of it
+            while (smallCount > 0 && largeCount > 0) {
+                int less = small[--smallCount];
+                int more = large[--largeCount];
+
+                this.probability[less] = scaled[less];
+                this.alias[less] = more;
+
+                scaled[more] = (scaled[more] + scaled[less]) - 1.0;
+
+                if (scaled[more] < 1.0) {
+                    small[smallCount++] = more;
+                } else {
+                    large[largeCount++] = more;
+                }
+            }
+
+            // Remaining columns are full, small columns can be left over from rounding errors
+            while (largeCount > 0) {
+                this.probability[large[--largeCount]] = 1.0;
+            }
+
+            while (smallCount > 0) {
+                this.probability[small[--smallCount]] = 1.0;
+            }
+        }
+
+        public int next(RandomGenerator random) {
+            int size = this.probability.length;
+
+            if (size == 0) {
+                return -1;
+            }
+
+            // Pick a column and a point in it from one random double
+            double value = random.nextDouble() * size;
+            int column = (int) value;
+
+            if (column >= size) {
+                column = size - 1;
+            }
+
+            return (value - column) < this.probability[column] ? column : this.alias[column];
+        }
     }
-}
\ No newline at end of file
+}